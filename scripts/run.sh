@@ -55,9 +55,9 @@ do
 		for s in ${sizes[*]}
 		do
 			echo "Running command ..."
-			echo "$JVM $FSMINER_jar dataFolder=${input_data} outputFolder=${output_data} dataFile=${dataset} minFreq=${defaults[0]} allMatches=$allMatches supportMeasure=$supportMeasure harmful=$harmful minSize=$s maxSize=${defaults[2]} limited=$limited timeout=$timeout storeOccMap=$storeOccMap"
+			echo "$JVM $FSMINER_jar dataFolder=${input_data} outputFolder=${output_data} dataFile=${dataset} minFreq=${defaults[0]} allMatches=$allMatches supportMeasure=$supportMeasure harmful=$harmful minSize=$s maxSize=${defaults[2]} limited=$limited timeout=$timeout storeOccMap=$storeOccMap vertexOrder=$vertexOrder maximalOnly=$maximalOnly ccThreads=$ccThreads matcher=$matcher matchOrder=$matchOrder planStats=$planStats simpletParallelism=$simpletParallelism minerThreads=$minerThreads simpletBudget=$simpletBudget runBudget=$runBudget maxWitnesses=$maxWitnesses failureCacheMB=$failureCacheMB domainFilter=$domainFilter symmetryBreaking=$symmetryBreaking approxSamples=$approxSamples approxConfidence=$approxConfidence"
 			echo "---- `date`"
-			$JVM $FSMINER_jar dataFolder=${input_data} outputFolder=${output_data} dataFile=${dataset} minFreq=${defaults[0]} allMatches=$allMatches supportMeasure=$supportMeasure harmful=$harmful minSize=$s maxSize=${defaults[2]} limited=$limited timeout=$timeout storeOccMap=$storeOccMap
+			$JVM $FSMINER_jar dataFolder=${input_data} outputFolder=${output_data} dataFile=${dataset} minFreq=${defaults[0]} allMatches=$allMatches supportMeasure=$supportMeasure harmful=$harmful minSize=$s maxSize=${defaults[2]} limited=$limited timeout=$timeout storeOccMap=$storeOccMap vertexOrder=$vertexOrder maximalOnly=$maximalOnly ccThreads=$ccThreads matcher=$matcher matchOrder=$matchOrder planStats=$planStats simpletParallelism=$simpletParallelism minerThreads=$minerThreads simpletBudget=$simpletBudget runBudget=$runBudget maxWitnesses=$maxWitnesses failureCacheMB=$failureCacheMB domainFilter=$domainFilter symmetryBreaking=$symmetryBreaking approxSamples=$approxSamples approxConfidence=$approxConfidence
 		done
 	fi
 
@@ -70,9 +70,9 @@ do
 		for freq in ${freqs[*]}
 		do
 			echo "Running command ..."
-			echo "$JVM $FSMINER_jar dataFolder=${input_data} outputFolder=${output_data} dataFile=${dataset} minFreq=$freq allMatches=$allMatches supportMeasure=$supportMeasure harmful=$harmful minSize=${defaults[1]} maxSize=${defaults[2]} limited=$limited timeout=$timeout storeOccMap=$storeOccMap"
+			echo "$JVM $FSMINER_jar dataFolder=${input_data} outputFolder=${output_data} dataFile=${dataset} minFreq=$freq allMatches=$allMatches supportMeasure=$supportMeasure harmful=$harmful minSize=${defaults[1]} maxSize=${defaults[2]} limited=$limited timeout=$timeout storeOccMap=$storeOccMap vertexOrder=$vertexOrder maximalOnly=$maximalOnly ccThreads=$ccThreads matcher=$matcher matchOrder=$matchOrder planStats=$planStats simpletParallelism=$simpletParallelism minerThreads=$minerThreads simpletBudget=$simpletBudget runBudget=$runBudget maxWitnesses=$maxWitnesses failureCacheMB=$failureCacheMB domainFilter=$domainFilter symmetryBreaking=$symmetryBreaking approxSamples=$approxSamples approxConfidence=$approxConfidence"
 			echo "---- `date`"
-			$JVM $FSMINER_jar dataFolder=${input_data} outputFolder=${output_data} dataFile=${dataset} minFreq=$freq allMatches=$allMatches supportMeasure=$supportMeasure harmful=$harmful minSize=${defaults[1]} maxSize=${defaults[2]} limited=$limited timeout=$timeout storeOccMap=$storeOccMap
+			$JVM $FSMINER_jar dataFolder=${input_data} outputFolder=${output_data} dataFile=${dataset} minFreq=$freq allMatches=$allMatches supportMeasure=$supportMeasure harmful=$harmful minSize=${defaults[1]} maxSize=${defaults[2]} limited=$limited timeout=$timeout storeOccMap=$storeOccMap vertexOrder=$vertexOrder maximalOnly=$maximalOnly ccThreads=$ccThreads matcher=$matcher matchOrder=$matchOrder planStats=$planStats simpletParallelism=$simpletParallelism minerThreads=$minerThreads simpletBudget=$simpletBudget runBudget=$runBudget maxWitnesses=$maxWitnesses failureCacheMB=$failureCacheMB domainFilter=$domainFilter symmetryBreaking=$symmetryBreaking approxSamples=$approxSamples approxConfidence=$approxConfidence
 		done
 	fi
 done
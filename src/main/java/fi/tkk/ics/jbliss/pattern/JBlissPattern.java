@@ -22,6 +22,7 @@ public class JBlissPattern implements Serializable {
     private List<Edge> edges;
     private Map<Integer, Integer> originalIDs; // pattern VID -> simplet VID
     private VertexPositionEquivalence automorphisms;
+    private int[] orbitForest; // union-find of the node positions in the same orbit, the smallest as root
     private final Map<Integer, Integer> canonicalLabelling;
     private final Graph jblissGraph;
     
@@ -41,6 +42,24 @@ public class JBlissPattern implements Serializable {
         }
         this.jblissGraph = new Graph(this);
     }
+
+    // bipartite pattern where each vertex in fixed has a label of its own, so that its
+    // automorphisms are those of the simplices fixing each of these vertices
+    public JBlissPattern(Collection<Simplex> simplices, List<Integer> fixed) {
+        this.automorphisms = null;
+        this.canonicalLabelling = Maps.newHashMap();
+        this.vertices = Lists.newArrayList();
+        this.edges = Lists.newArrayList();
+        this.originalIDs = Maps.newHashMap();
+        initializeBipartiteGraph(simplices);
+        originalIDs.entrySet().forEach(e -> {
+            int pos = fixed.indexOf(e.getValue());
+            if (pos >= 0 && vertices.get(e.getKey()).getLabel() == 0) {
+                vertices.get(e.getKey()).setLabel(2 + pos);
+            }
+        });
+        this.jblissGraph = new Graph(this);
+    }
     
     private void initializeUnderlyingGraph(Collection<Simplex> simplices) {
         Map<Integer, Integer> inserted = Maps.newHashMap();
@@ -247,6 +266,74 @@ public class JBlissPattern implements Serializable {
         return orbitRepresentatives;
     }
     
+    // orbit of each simplet vertex, as simplet vertices; the pattern need not be canonical
+    public Map<Integer, Set<Integer>> getVertexOrbits() {
+        int[] parent = getOrbitForest();
+        Map<Integer, Set<Integer>> groups = Maps.newHashMap();
+        for (int i = 0; i < parent.length; i++) {
+            if (vertices.get(i).getLabel() != 1) {
+                groups.computeIfAbsent(find(parent, i), x -> Sets.newHashSet()).add(originalIDs.get(i));
+            }
+        }
+        Map<Integer, Set<Integer>> orbits = Maps.newHashMap();
+        groups.values().forEach(g -> g.forEach(v -> orbits.put(v, g)));
+        return orbits;
+    }
+
+    // the equivalences are those reported by the generators: close them transitively
+    private int[] getOrbitForest() {
+        if (orbitForest == null) {
+            findAutomorphisms();
+            int[] parent = new int[vertices.size()];
+            for (int i = 0; i < parent.length; i++) {
+                parent[i] = i;
+            }
+            automorphisms.getEquivalences().entrySet().forEach(e -> e.getValue().forEach(eq -> {
+                int a = find(parent, e.getKey());
+                int b = find(parent, eq);
+                parent[Math.max(a, b)] = Math.min(a, b);
+            }));
+            orbitForest = parent;
+        }
+        return orbitForest;
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            i = parent[i];
+        }
+        return i;
+    }
+
+    // canonical position of the node of the simplet vertex v, or rather the smallest
+    // one in its orbit, so that it is the same for isomorphic patterns; -1 if v is not in the pattern
+    public int getCanonicalOrbitOf(int v) {
+        int pos = -1;
+        for (Entry<Integer, Integer> e : originalIDs.entrySet()) {
+            if (e.getValue() == v && vertices.get(e.getKey()).getLabel() == 0) {
+                pos = e.getKey();
+                break;
+            }
+        }
+        if (pos < 0) {
+            return -1;
+        }
+        // the root of the closed orbit is its smallest position
+        return find(getOrbitForest(), pos);
+    }
+
+    // identifies the pattern up to isomorphism, once canonical
+    public String toCanonicalString() {
+        StringBuilder sb = new StringBuilder();
+        for (LabeledNode node : vertices) {
+            sb.append(node.getLabel());
+        }
+        for (Edge edge : edges) {
+            sb.append(edge.toString());
+        }
+        return sb.toString();
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -1,16 +1,16 @@
 package fsminer;
 
+import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
 import fsminer.search.Miner;
 import fsminer.structures.Complex;
-import fsminer.structures.Simplex;
+import fsminer.structures.ComplexSnapshot;
+import fsminer.structures.Simplet;
 import fsminer.utils.CMDLParser;
+import fsminer.utils.ComplexLoader;
 import fsminer.utils.Pair;
 import fsminer.utils.Settings;
 import fsminer.utils.StopWatch;
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
@@ -18,101 +18,109 @@ import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class Main {
     
     static StopWatch watch;
 
     public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("convert")) {
+            convert(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         //parse the command line arguments
         CMDLParser.parse(args);
         
         watch = new StopWatch();
         watch.start();
         if (Settings.dataFile.contains("temporal")) {
-            runCCs(Settings.dataFolder + Settings.dataFile, Sets.newHashSet());
+            runCCs(Settings.dataFolder + Settings.dataFile, Settings.ccs);
         } else {
-            Complex complex = loadComplex(Settings.dataFolder + Settings.dataFile);
+            Complex complex = ComplexLoader.load(Settings.dataFolder + Settings.dataFile);
             System.out.println("Vertices=" + complex.getNumVertices() + " Simplices=" + complex.getNumberOfSimplices());
-            List<String> results = run(complex, Settings.limited, Settings.timeout, -1);
+            List<Simplet> results = run(complex, Settings.limited, Settings.timeout, Settings.minerThreads, -1);
             System.out.println("TIME: " + watch.getElapsedTimeInSec() + " Frequent simplets found: " + results.size());
             System.out.println("Writing output to disk...");
             writeResults(results);
         }
     }
     
+    // write the binary snapshot of a complex, to be loaded with dataFile=<file_name>.fsc
+    private static void convert(String[] args) throws IOException {
+        CMDLParser.parse(args);
+        if (Settings.dataFile.contains("temporal")) {
+            System.out.println("Snapshots of temporal complexes are not supported");
+            return;
+        }
+        StopWatch convertWatch = new StopWatch();
+        convertWatch.start();
+        Complex complex = ComplexLoader.load(Settings.dataFolder + Settings.dataFile);
+        ComplexSnapshot.write(complex, Settings.dataFolder + Settings.dataFile + ComplexLoader.SNAPSHOT_EXT);
+        System.out.println("Snapshot " + Settings.dataFile + ComplexLoader.SNAPSHOT_EXT 
+                + " written in " + convertWatch.getElapsedTimeInSec());
+    }
+    
     // run algorithm for each connected component in ccs (or all components if ccs is empty)
     private static void runCCs(String fileName, Set<Integer> ccs) throws IOException {
-        List<Complex> complexes = loadComplexes(fileName);
-        for (int i = 0; i< complexes.size(); i++) {
-            if (ccs.isEmpty() || ccs.contains(i)) {
-                List<String> results = run(complexes.get(i), Settings.limited, Settings.timeout, i);
-                writeResults(results, i);
+        try (ComplexLoader.Components components = new ComplexLoader.Components(fileName)) {
+            // the components are mined concurrently, the largest ones first so that
+            // they do not end up running alone at the end; each one is parsed
+            // by the thread that mines it and is released once its results are written.
+            // Each component has its own miner pool, so the cores are split among them:
+            // ccThreads x minerThreads stays within the available processors
+            int cores = Runtime.getRuntime().availableProcessors();
+            int ccThreads = Math.min(Settings.ccThreads, cores);
+            int minerThreads = Math.max(1, Math.min(Settings.minerThreads, cores / ccThreads));
+            ExecutorService pool = Executors.newFixedThreadPool(ccThreads);
+            List<Future<?>> tasks = Lists.newArrayList();
+            for (int c : components.select(ccs)) {
+                tasks.add(pool.submit(() -> {
+                    List<Simplet> results = run(components.read(c), Settings.limited, Settings.timeout, minerThreads, c);
+                    writeResults(results, c);
+                    return null;
+                }));
+            }
+            pool.shutdown();
+            try {
+                for (Future<?> task : tasks) {
+                    task.get();
+                }
+            } catch (InterruptedException ex) {
+                pool.shutdownNow();
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while mining the connected components", ex);
+            } catch (ExecutionException ex) {
+                pool.shutdownNow();
+                Throwables.throwIfInstanceOf(ex.getCause(), IOException.class);
+                Throwables.throwIfUnchecked(ex.getCause());
+                throw new RuntimeException(ex.getCause());
             }
         }
     }
     
-    private static List run(Complex complex, boolean limited, long timeout, int i) throws IOException {
-        Miner miner = new Miner();
-        List fps = miner.mine(complex, Settings.minFreq, Settings.minDim, Settings.maxSize, limited, timeout);
-        if (Settings.storeOccMap) {
-            writeOccMap(miner.getOccMap(), i);
+    private static List<Simplet> run(Complex complex, boolean limited, long timeout, int threads, int i) throws IOException {
+        Miner miner = new Miner(threads);
+        List<Simplet> fps = miner.mine(complex, Settings.minFreq, Settings.minDim, Settings.maxSize, limited, timeout);
+        if (miner.isBudgetExpired() || miner.getIncompleteSimplets() > 0) {
+            System.out.println((i < 0 ? "" : "Component " + i + ": ")
+                    + (miner.isBudgetExpired() ? "time budget of the run expired, " : "")
+                    + miner.getIncompleteSimplets() + " simplets examined partially; "
+                    + "the results are incomplete and the partial supports are flagged");
         }
-        return fps;
-    }
-    
-    private static Complex loadComplex(String fileName) throws IOException {
-        final BufferedReader rows = new BufferedReader(new FileReader(fileName));
-        List<Simplex> simplices = Lists.newArrayList();
-        String line;
-        int counter = 0;
-
-        while ((line = rows.readLine()) != null) {
-            String[] parts = line.split(" ");
-            Set<Integer> tmp = Sets.newHashSet();
-            for (String p : parts) {
-                tmp.add(Integer.parseInt(p));
-            }
-            Simplex s = new Simplex(counter, tmp, true);
-            simplices.add(s);
-            counter++;
+        if (Settings.storeOccMap) {
+            writeOccMap(miner.getOccMap(), complex, i);
         }
-        rows.close();
-        return new Complex(simplices);
-    } 
-    
-    // Load connected components
-    private static List<Complex> loadComplexes(String fileName) throws IOException {
-        final BufferedReader rows = new BufferedReader(new FileReader(fileName));
-        List<Complex> complexes = Lists.newArrayList();
-        String line;
-        int counter = 0;
-
-        while ((line = rows.readLine()) != null) {
-            List<Simplex> simplices = Lists.newArrayList();
-            String[] parts = line.split("\t\t");
-            for (String p : parts) {
-                Set<Integer> tmp = Sets.newHashSet();
-                String[] els = p.substring(1, p.length()-1).split(",");
-                for (String el : els) {
-                    if (el.length() > 0) {
-                        tmp.add(Integer.parseInt(el.strip()));
-                    }
-                }
-                Simplex s = new Simplex(counter, tmp, true);
-                simplices.add(s);
-                counter++;
-            }
-            if (simplices.size() > 1) {
-                Complex complex = new Complex(simplices);
-                complexes.add(complex);
-            }
+        if (Settings.planStats) {
+            writePlanStats(miner.getPlanStats(), i);
         }
-        rows.close();
-        return complexes;
+        return fps;
     }
     
-    private static void writeStats(int numPatterns) {
+    private static synchronized void writeStats(int numPatterns) {
         try {
             FileWriter fw = new FileWriter(Settings.outputFolder + "statistics.csv", true);
             fw.write(String.format("%s\t%s\t%f\t%d\t%d\t%d\t%d\t%s\t%s\n",
@@ -124,14 +132,14 @@ public class Main {
                     Settings.minDim,
                     Settings.maxSize,
                     Settings.allMatches,
-                    Settings.supportMeasure.equalsIgnoreCase("mni") ? Settings.supportMeasure : 
+                    !Settings.supportMeasure.equalsIgnoreCase("mis") ? Settings.supportMeasure : 
                             (Settings.supportMeasure + "-" + Settings.harmful)));
             fw.close();
         } catch (IOException ex) {
         }
     }
     
-    private static void writeResults(List results) throws IOException {
+    private static void writeResults(List<Simplet> results) throws IOException {
         writeStats(results.size());
         try {
             String fName = Settings.dataFile
@@ -139,12 +147,12 @@ public class Main {
                     + "m" + Settings.minDim
                     + "M" + Settings.maxSize
                     + "ALL" + Settings.allMatches
-                    + "S" + (Settings.supportMeasure.equalsIgnoreCase("mni") ? Settings.supportMeasure : 
+                    + "S" + (!Settings.supportMeasure.equalsIgnoreCase("mis") ? Settings.supportMeasure : 
                             (Settings.supportMeasure + "-" + Settings.harmful))
                     + ".txt";
             FileWriter fwP = new FileWriter(Settings.outputFolder + fName);
-            for (Object s : results) {
-                fwP.write(s.toString() + "\n");
+            for (Simplet s : results) {
+                fwP.write(s.toResultString() + "\n");
             }
             fwP.close();
         } catch (IOException ex) {
@@ -152,7 +160,7 @@ public class Main {
     }
     
     // For each node, write in which frequent pattern it appears
-    private static void writeOccMap(List<Pair<String, Integer>> results, int i) throws IOException {
+    private static void writeOccMap(List<Pair<String, Integer>> results, Complex complex, int i) throws IOException {
         try {
             String fName;
             if (i < 0) {
@@ -161,7 +169,7 @@ public class Main {
                     + "m" + Settings.minDim
                     + "M" + Settings.maxSize
                     + "ALL" + Settings.allMatches
-                    + "S" + (Settings.supportMeasure.equalsIgnoreCase("mni") ? Settings.supportMeasure : 
+                    + "S" + (!Settings.supportMeasure.equalsIgnoreCase("mis") ? Settings.supportMeasure : 
                             (Settings.supportMeasure + "-" + Settings.harmful))
                     + "_OM.txt";
             } else {
@@ -171,13 +179,37 @@ public class Main {
                     + "m" + Settings.minDim
                     + "M" + Settings.maxSize
                     + "ALL" + Settings.allMatches
-                    + "S" + (Settings.supportMeasure.equalsIgnoreCase("mni") ? Settings.supportMeasure : 
+                    + "S" + (!Settings.supportMeasure.equalsIgnoreCase("mis") ? Settings.supportMeasure : 
                             (Settings.supportMeasure + "-" + Settings.harmful))
                     + "_OM.txt";
             }
             FileWriter fwP = new FileWriter(Settings.outputFolder + fName);
             for (Pair<String, Integer> s : results) {
-                fwP.write(s.getA() + "\t" + s.getB() + "\n");
+                fwP.write(s.getA() + "\t" + complex.getOriginalId(s.getB()) + "\n");
+            }
+            fwP.close();
+        } catch (IOException ex) {
+        }
+    }
+    
+    // For each examined simplet, write the number of searches and the estimated and actual number of nodes they visited
+    private static void writePlanStats(List<String> results, int i) throws IOException {
+        try {
+            String fName = Settings.dataFile
+                    + (i < 0 ? "" : "_" + i + "_")
+                    + "_F" + Settings.minFreq
+                    + "m" + Settings.minDim
+                    + "M" + Settings.maxSize
+                    + "ALL" + Settings.allMatches
+                    + "S" + (!Settings.supportMeasure.equalsIgnoreCase("mis") ? Settings.supportMeasure : 
+                            (Settings.supportMeasure + "-" + Settings.harmful))
+                    + "_PLAN.txt";
+            FileWriter fwP = new FileWriter(Settings.outputFolder + fName);
+            fwP.write("simplet\tsearches\testimated_nodes\tvisited_nodes\n");
+            synchronized (results) {
+                for (String s : results) {
+                    fwP.write(s + "\n");
+                }
             }
             fwP.close();
         } catch (IOException ex) {
@@ -185,7 +217,7 @@ public class Main {
     }
     
     // Save Results when examining the connected components
-    private static void writeResults(List results, int c) throws IOException {
+    private static void writeResults(List<Simplet> results, int c) throws IOException {
         writeStats(results.size());
         try {
             String fName = Settings.dataFile
@@ -194,12 +226,12 @@ public class Main {
                     + "m" + Settings.minDim
                     + "M" + Settings.maxSize
                     + "ALL" + Settings.allMatches
-                    + "S" + (Settings.supportMeasure.equalsIgnoreCase("mni") ? Settings.supportMeasure : 
+                    + "S" + (!Settings.supportMeasure.equalsIgnoreCase("mis") ? Settings.supportMeasure : 
                             (Settings.supportMeasure + "-" + Settings.harmful))
                     + ".txt";
             FileWriter fwP = new FileWriter(Settings.outputFolder + fName);
-            for (Object s : results) {
-                fwP.write(s.toString() + "\n");
+            for (Simplet s : results) {
+                fwP.write(s.toResultString() + "\n");
             }
             fwP.close();
         } catch (IOException ex) {
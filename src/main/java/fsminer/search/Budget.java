@@ -0,0 +1,62 @@
+package fsminer.search;
+
+// Cooperative cancellation token. A budget expires at its deadline, when it is
+// cancelled, or when its parent expires; the budgets nest as run > simplet >
+// worker > candidate. The searches poll expired() at every step: it reads the
+// clock only once every CHECK_INTERVAL polls, so that a poll costs an increment.
+// expired() is meant for the thread owning the budget, while check() and
+// cancel() can be called from any thread.
+// Public since the generated matchers poll it.
+public class Budget {
+
+    private static final int CHECK_INTERVAL = 1024;
+
+    private final Budget parent;
+    private final boolean hasDeadline;
+    private final long deadline; // System.nanoTime() at which the budget expires
+    private volatile boolean expired;
+    private int polls; // since the last look at the clock
+
+    private Budget(Budget parent, long millis) {
+        this.parent = parent;
+        this.hasDeadline = millis >= 0;
+        this.deadline = hasDeadline ? System.nanoTime() + millis * 1000000L : 0;
+    }
+
+    // budget expiring after millis milliseconds (never if negative)
+    public static Budget start(long millis) {
+        return new Budget(null, millis);
+    }
+
+    // budget expiring after millis milliseconds (never if negative), or with this one
+    public Budget child(long millis) {
+        return new Budget(this, millis);
+    }
+
+    public boolean expired() {
+        if (expired) {
+            return true;
+        }
+        if (++polls < CHECK_INTERVAL) {
+            return false;
+        }
+        polls = 0;
+        return check();
+    }
+
+    // whether the budget has expired, looking at the clock now
+    public boolean check() {
+        if (expired) {
+            return true;
+        }
+        if ((hasDeadline && System.nanoTime() - deadline >= 0) || (parent != null && parent.check())) {
+            expired = true;
+        }
+        return expired;
+    }
+
+    public void cancel() {
+        expired = true;
+    }
+
+}
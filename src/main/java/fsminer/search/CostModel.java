@@ -0,0 +1,80 @@
+package fsminer.search;
+
+import fsminer.structures.Complex;
+import fsminer.utils.Settings;
+
+// Statistics of a complex used to estimate the cost of a matching order, computed
+// once per complex and then only read:
+// - the degree distribution, for the chance that a vertex has enough neighbours
+//   and for the expected size of a neighbourhood reached through an edge;
+// - the edge density, for the chance that a candidate is adjacent to a further
+//   assigned vertex;
+// - the fraction of the vertices lying in simplices of each size, for the chance
+//   that a face check succeeds.
+// The estimates assume independent constraints: they are meant to rank orders,
+// not to predict running times.
+public class CostModel {
+
+    private final int n;
+    private final double density;
+    private final double reachedDegree; // expected degree of the endpoint of a random edge
+    private final double[] atLeastDegree; // d -> fraction of vertices with degree >= d
+    private final double[] coverage; // s -> fraction of the vertices in simplices of size >= s
+
+    public CostModel(Complex complex) {
+        this.n = Math.max(1, complex.getNumVertices());
+        int maxDegree = complex.getMaxDegree();
+        long[] counts = new long[maxDegree + 2];
+        double sum = 0;
+        double squares = 0;
+        for (int v = 0; v < complex.getNumVertices(); v++) {
+            int d = complex.getDegree(v);
+            counts[d]++;
+            sum += d;
+            squares += (double) d * d;
+        }
+        this.atLeastDegree = new double[maxDegree + 2];
+        long atLeast = 0;
+        for (int d = maxDegree + 1; d >= 0; d--) {
+            atLeast += counts[d];
+            atLeastDegree[d] = (double) atLeast / n;
+        }
+        this.density = n > 1 ? sum / ((double) n * (n - 1)) : 1;
+        this.reachedDegree = sum > 0 ? squares / sum : 0;
+        int maxSize = Math.max(2, Settings.maxSize);
+        this.coverage = new double[maxSize + 1];
+        for (int s = 1; s <= maxSize; s++) {
+            coverage[s] = (double) complex.getVerticesInSimplicesOfSize(s).cardinality() / n;
+        }
+    }
+
+    // expected number of complex vertices that can be assigned to a simplet vertex
+    // with the given degree, adjacent to backNeighbors assigned vertices and checked
+    // against faces of the given sizes; imageFraction is the fraction of the complex
+    // vertices in its upper bound
+    public double branching(int degree, int backNeighbors, int[] faceSizes, double imageFraction) {
+        double res = reachedDegree * Math.pow(density, backNeighbors - 1)
+                * atLeastDegree(degree) * imageFraction;
+        for (int s : faceSizes) {
+            res *= faceProbability(s);
+        }
+        return res;
+    }
+
+    private double atLeastDegree(int d) {
+        return d < atLeastDegree.length ? atLeastDegree[d] : 0;
+    }
+
+    // chance that vertices pairwise adjacent form a simplex of size s
+    private double faceProbability(int s) {
+        if (coverage[2] == 0) {
+            return 0;
+        }
+        return coverage[Math.min(s, coverage.length - 1)] / coverage[2];
+    }
+
+    public int getNumVertices() {
+        return n;
+    }
+
+}
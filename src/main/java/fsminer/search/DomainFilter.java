@@ -0,0 +1,115 @@
+package fsminer.search;
+
+import fsminer.structures.Complex;
+import fsminer.structures.Simplet;
+import fsminer.structures.Simplex;
+import fsminer.structures.VertexBitmap;
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+
+// Arc consistency of the domains of the simplet vertices, enforced before any
+// search. A complex vertex stays in the domain of a simplet vertex only if:
+// - its degree is at least the one of the simplet vertex;
+// - it belongs to a simplex as large as the largest simplet simplex containing the vertex;
+// - it has a neighbour in the domain of each neighbour of the simplet vertex.
+// The last condition is propagated (AC-3) until no domain changes. Each image of a
+// vertex passes all the checks, so the filtered domains are still upper bounds to
+// the image sets, and the simplet is infrequent as soon as one falls below minFreq.
+// An extension starts from the domains of its parent, which are already consistent
+// along the edges of the parent: only the arcs towards a new or shrunk domain, or
+// along a new edge, are checked first.
+class DomainFilter {
+
+    // filters domains in place, given the domains of parent (null if unknown); false
+    // if a domain falls below minFreq, the others being then not filtered further.
+    // If the budget expires, the domains are left partially filtered, which is still sound
+    static boolean filter(Complex complex, Simplet simplet, Simplet parent, Map<Integer, VertexBitmap> parentDomains,
+            MatchPlan plan, VertexBitmap[] domains, int minFreq, Budget budget) {
+        int k = domains.length;
+        int[] largestSimplex = largestSimplices(simplet, k);
+        int[] parentLargestSimplex = largestSimplices(parent, k);
+        boolean[] changed = new boolean[k];
+        for (int u = 0; u < k; u++) {
+            VertexBitmap before = parentDomains != null ? parentDomains.get(u) : null;
+            int minDegree = plan.getDegree(u);
+            // the domain of the parent already meets the same requirements
+            boolean sameRequirements = before != null && parent.contains(u)
+                    && parent.getNeighborsOf(u) != null && parent.getNeighborsOf(u).size() == minDegree
+                    && parentLargestSimplex[u] == largestSimplex[u];
+            if (!sameRequirements) {
+                domains[u].and(complex.getVerticesInSimplicesOfSize(largestSimplex[u]));
+                // the vertices of a simplex with s vertices have at least s - 1 neighbours
+                if (minDegree > largestSimplex[u] - 1) {
+                    VertexBitmap filtered = new VertexBitmap();
+                    domains[u].forEach(n -> {
+                        if (complex.getDegree(n) >= minDegree) {
+                            filtered.add(n);
+                        }
+                    });
+                    domains[u] = filtered;
+                }
+            }
+            int size = domains[u].cardinality();
+            if (size < minFreq) {
+                return false;
+            }
+            // an unknown domain is as good as changed
+            changed[u] = before == null || before.cardinality() != size;
+        }
+        ArrayDeque<int[]> arcs = new ArrayDeque<>();
+        boolean[][] queued = new boolean[k][k];
+        for (int u = 0; u < k; u++) {
+            for (int w : simplet.getNeighborsOf(u)) {
+                if (changed[w] || !parent.contains(u) || !parent.areNeighbors(u, w)) {
+                    arcs.add(new int[]{u, w});
+                    queued[u][w] = true;
+                }
+            }
+        }
+        while (!arcs.isEmpty() && !budget.check()) {
+            int[] arc = arcs.poll();
+            int u = arc[0];
+            int w = arc[1];
+            queued[u][w] = false;
+            // the vertices of the domain of u without neighbours in the domain of w
+            BitSet domainW = new BitSet();
+            domains[w].forEach(domainW::set);
+            VertexBitmap unsupported = new VertexBitmap();
+            PrimitiveIterator.OfInt it = domains[u].iterator();
+            while (it.hasNext()) {
+                int n = it.nextInt();
+                if (!complex.hasNeighborIn(n, domainW)) {
+                    unsupported.add(n);
+                }
+            }
+            if (unsupported.isEmpty()) {
+                continue;
+            }
+            domains[u].andNot(unsupported);
+            if (domains[u].cardinality() < minFreq) {
+                return false;
+            }
+            for (int x : simplet.getNeighborsOf(u)) {
+                if (x != w && !queued[x][u]) {
+                    arcs.add(new int[]{x, u});
+                    queued[x][u] = true;
+                }
+            }
+        }
+        return true;
+    }
+
+    // size of the largest simplex containing each vertex of the simplet (0 if not in the simplet)
+    private static int[] largestSimplices(Simplet simplet, int k) {
+        int[] largest = new int[k];
+        for (Simplex s : simplet.getAllHDSimplices()) {
+            for (int v : s.getVertices()) {
+                largest[v] = Math.max(largest[v], s.getNumVertices());
+            }
+        }
+        return largest;
+    }
+
+}
@@ -0,0 +1,12 @@
+package fsminer.search;
+
+// Consumer of the embeddings enumerated by MatchFinder.forEachEmbedding. The
+// embedding gives the complex vertex of each simplet vertex in its first k
+// entries; the array is the scratch state of the search, so it is only valid
+// during the call and must be copied to be kept.
+// Returns false to stop the enumeration.
+public interface EmbeddingVisitor {
+
+    boolean visit(int[] embedding);
+
+}
@@ -2,95 +2,184 @@ package fsminer.search;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
 import fsminer.mis.OverlapGraph;
 import fsminer.structures.Complex;
 import fsminer.structures.Simplet;
 import fsminer.structures.Simplex;
-import fsminer.utils.Pair;
+import fsminer.structures.VertexBitmap;
 import fsminer.utils.Settings;
 import fsminer.utils.StopWatch;
 import fsminer.utils.Utils;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.PrimitiveIterator;
 import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.IntStream;
 
 public class MatchFinder {
     
+    // outcomes of a search
+    static final int NOT_FOUND = 0;
+    static final int FOUND = 1;
+    static final int TIMED_OUT = 2;
+    static final int STOPPED = 3; // by the visitor of the embeddings
+    // smallest number of candidates handed to a worker of the parallel examination
+    private static final int MIN_CHUNK = 32;
+
     Complex complex;
     Simplet simplet;
     int minFreq;
+    int k; // number of vertices of the simplet (its vertices are 0..k-1)
+    MatchPlan plan;
+    SpecializedMatcher matcher; // generated matcher for the plan, null to interpret it
+    int[][] orbits; // orbit of each vertex, computed on the first match
+    MatchState state;
+    Budget budget; // budget of the examination of the simplet
+    boolean parallel; // whether the candidates of each vertex are split among workers
+    int[] witnesses; // embeddings found by the min-based search, k complex vertices each
+    int numWitnesses;
+    // size of the searches run so far, to check the estimates of the plan
+    long searches;
+    long visitedNodes; // partial matches extended (interpreted search only)
+    double estimatedNodes;
     
-    public MatchFinder(Complex complex, Simplet simplet, int minFreq) {
+    // cost may be null, if the plan neither picks its order nor estimates its cost;
+    // with parallel, the candidates of each vertex are examined on the fork-join pool running the search
+    public MatchFinder(Complex complex, Simplet simplet, int minFreq, CostModel cost, boolean parallel) {
         this.complex = complex;
         this.simplet = simplet;
         this.minFreq = minFreq;
+        this.k = simplet.getNumVertices();
+        this.parallel = parallel;
+        // with harmful overlaps, the matches of the same occurrence are not interchangeable in the overlap graph
+        boolean breakSymmetries = Settings.symmetryBreaking
+                && !(Settings.supportMeasure.equalsIgnoreCase("mis") && Settings.harmful);
+        if (cost == null) {
+            this.plan = new MatchPlan(simplet, breakSymmetries);
+        } else {
+            // upper bounds to the image sets, if already known (exact search only)
+            double[] imageFractions = new double[k];
+            for (int v = 0; v < k; v++) {
+                VertexBitmap image = simplet.getImageOf(v);
+                imageFractions[v] = image == null ? 1 
+                        : Math.min(1, (double) image.cardinality() / cost.getNumVertices());
+            }
+            this.plan = new MatchPlan(simplet, cost, imageFractions, Settings.matchOrder.equalsIgnoreCase("cost"),
+                    breakSymmetries);
+        }
+        if (Settings.matcher.equalsIgnoreCase("compiled") && !Settings.planStats) {
+            this.matcher = MatcherCompiler.compile(plan);
+        }
+    }
+
+    // worker of a parallel examination: it shares the plan of parent, and has its own scratch state
+    private MatchFinder(MatchFinder parent) {
+        this.complex = parent.complex;
+        this.simplet = parent.simplet;
+        this.minFreq = parent.minFreq;
+        this.k = parent.k;
+        this.plan = parent.plan;
+        this.matcher = parent.matcher;
+        this.budget = parent.budget;
+        this.state = new MatchState();
+        state.ensureCapacity(k, complex.getMaxDegree());
     }
     
-    // Find all the occurrences of a pattern
-    public void examine() {
-        Map<Integer, Set<Integer>> images = Maps.newHashMap();
+    // Find all the occurrences of a pattern; if the budget expires first, the image
+    // sets found so far are kept and the simplet is marked as incomplete.
+    // With domainFilter=all, the upper bounds to the image sets, those of the parent,
+    // are first made arc consistent
+    public void examine(Simplet parentSimplet, Budget budget) {
+        this.budget = budget;
+        Map<Integer, VertexBitmap> images = Maps.newHashMap();
         if (simplet.getImages().isEmpty()) {
             simplet.emptyImageMap();
             return;
         }
+        VertexBitmap[] upperBounds = new VertexBitmap[k];
+        for (int u = 0; u < k; u++) {
+            upperBounds[u] = simplet.getImageOf(u);
+        }
+        if (Settings.domainFilter.equalsIgnoreCase("all")) {
+            if (!DomainFilter.filter(complex, simplet, parentSimplet, parentSimplet.getImages(),
+                    plan, upperBounds, minFreq, budget)) {
+                simplet.emptyImageMap();
+                return;
+            }
+            for (int u = 0; u < k; u++) {
+                simplet.addUBImage(u, upperBounds[u]);
+            }
+        }
         OverlapGraph og = new OverlapGraph(Settings.harmful);
+        state = MatchState.forThread(k, complex.getMaxDegree());
         // order the vertices according to size of image sets
         List<Integer> ordered_vertices = Lists.newArrayList(simplet.getVertices());
         Collections.sort(ordered_vertices, (Integer e1, Integer e2)
-                -> Integer.compare(simplet.getImageOf(e1).size(), simplet.getImageOf(e2).size()));
+                -> Integer.compare(simplet.getImageOf(e1).cardinality(), simplet.getImageOf(e2).cardinality()));
         // initial set of valid matches
-        Set<Integer> initial = Sets.newHashSet();
-        for (Simplex s : complex.getSimplices()) {
-            if (s.getNumVertices() >= simplet.getNumVertices()) {
-                initial.addAll(s.getVertices());
-            }
-        }
+        VertexBitmap initial = complex.getVerticesInSimplicesOfSize(simplet.getNumVertices());
         for (int v : ordered_vertices) {
-            if (simplet.getImageOf(v).size() < minFreq) {
+            if (simplet.getImageOf(v).cardinality() < minFreq) {
                 simplet.emptyImageMap();
                 return;
             }
-            Set<Integer> partialImageSet = Sets.newHashSet(initial);
-            partialImageSet.addAll(images.getOrDefault(v, Sets.newHashSet()));
-            Set<Integer> candidates = Sets.newHashSet(simplet.getImageOf(v));
-            candidates.removeAll(partialImageSet);
-            int c = 0;
-            // sort vertices using a dfs
-            List<Integer> vertex_ordering = Lists.newArrayList();
-            vertex_ordering.add(v);
-            simplet.dfs(vertex_ordering, v);
-                
-            for (Integer n : candidates) {
-                c += 1;
-                Map<Integer, Integer> M = Maps.newHashMap();
-                M.put(v, n);
-                if (Settings.supportMeasure.equalsIgnoreCase("mis")) {
-                    // call recursive function to get all the matches
-                    Map<Integer, Set<Integer>> allMatches = findAllMatches(og, M, 0, vertex_ordering);
-                    // update image sets with the valid matches
-                    updateImageSets(images, allMatches);
-                    if (!allMatches.isEmpty()) {
+            VertexBitmap partialImageSet = initial.copy();
+            if (images.containsKey(v)) {
+                partialImageSet.or(images.get(v));
+            }
+            int[] candidates = simplet.getImageOf(v).copy().andNot(partialImageSet).toArray();
+            int numImages = partialImageSet.cardinality();
+            if (Settings.supportMeasure.equalsIgnoreCase("mis")) {
+                // the overlap graph is not thread-safe, so the enumeration stays sequential
+                int c = 0;
+                for (int n : candidates) {
+                    c += 1;
+                    searches++;
+                    estimatedNodes += plan.getEstimatedNodes(v);
+                    OverlapCollector collector = new OverlapCollector(og, images, v);
+                    int res = forEachEmbedding(v, n, collector, budget);
+                    if (collector.found > 0) {
                         partialImageSet.add(n);
+                        numImages++;
                     }
-                } else {
-                    Map<Integer, Integer> match = findMatch(M, 0, vertex_ordering);
-                    if (match.size() == simplet.getNumVertices()) {
-                        Set<Pair<Integer, Integer>> edgeSet = Sets.newHashSet();
-                        updateAndPropagateImageSets(images, match);
-                        partialImageSet.add(n);
+                    if (res == TIMED_OUT) {
+                        simplet.setIncomplete(true);
+                        break;
+                    }
+                    // early stop if the simplet cannot be frequent
+                    if (candidates.length - c + numImages < minFreq) {
+                        simplet.emptyImageMap();
+                        return;
                     }
                 }
+            } else {
+                CandidateScan scan = new CandidateScan(v, upperBounds, -1, false,
+                        images, partialImageSet, null, candidates.length, 0, numImages);
+                run(scan, candidates);
                 // early stop if the simplet cannot be frequent
-                if (candidates.size() - c + partialImageSet.size() < minFreq) {
+                if (scan.infrequent) {
                     simplet.emptyImageMap();
                     return;
                 }
+                if (scan.cancelled) {
+                    simplet.setIncomplete(true);
+                }
             }
-            Set<Integer> imageV = images.getOrDefault(v, Sets.newHashSet());
-            imageV.addAll(partialImageSet);
+            VertexBitmap imageV = images.getOrDefault(v, new VertexBitmap());
+            imageV.or(partialImageSet);
             images.put(v, imageV);
+            if (simplet.isIncomplete()) {
+                break;
+            }
+        }
+        // the vertices not examined keep the images propagated to them
+        for (int v : ordered_vertices) {
+            images.computeIfAbsent(v, x -> new VertexBitmap());
         }
         simplet.setImages(images);
         if (Settings.supportMeasure.equalsIgnoreCase("mis")) {
@@ -103,311 +192,690 @@ public class MatchFinder {
     }
 
     // Find the minimum number of occurrences needed to determine if the pattern is frequent
-    public void examineSingle(
-            Map<Integer, Set<Integer>> parent, 
-            Map<Integer, Set<Integer>> pNonCands,
-            long timeout) {
-        Map<Integer, Set<Integer>> images = Maps.newHashMap();
-        Map<Integer, Set<Integer>> nonCands = Maps.newHashMap();
-        pNonCands.entrySet().stream().forEach(e -> {
-            nonCands.put(e.getKey(), Sets.newHashSet(e.getValue()));
-        });
-        // order the vertices according to size of image sets
-        // find enough matches for each vertex
+    // (timeout is the budget of each candidate); if the budget expires first, the
+    // image sets found so far are kept and the simplet is marked as incomplete.
+    // The embeddings kept by the parent are extended first, and the embeddings found
+    // are kept in turn for the extensions of the simplet (up to Settings.maxWitnesses).
+    // The failures of the search are shared through failureCache, if not null.
+    // The candidates of each vertex come from its domain: the one of the parent (all the
+    // vertices for a new vertex) without the failures, made arc consistent unless
+    // domainFilter=none. None of this is needed if the vertices in simplices with k
+    // vertices are enough, as each of them is an image of every vertex
+    public void examineSingle(Simplet parentSimplet, NegativeCache failureCache, long timeout, Budget budget) {
+        this.budget = budget;
+        Map<Integer, VertexBitmap> parent = parentSimplet.getImages();
+        Map<Integer, VertexBitmap> images = Maps.newHashMap();
+        Map<Integer, VertexBitmap> nonCands = Utils.copyImages(parentSimplet.getNonCands());
         // initialization of images
-        Set<Integer> initial = Sets.newHashSet();
-        for (Simplex s : complex.getSimplices()) {
-            if (s.getNumVertices() >= simplet.getNumVertices()) {
-                initial.addAll(s.getVertices());
-            } 
+        VertexBitmap initial = complex.getVerticesInSimplicesOfSize(simplet.getNumVertices());
+        boolean needsSearch = initial.cardinality() < minFreq;
+        VertexBitmap[] domains = null;
+        if (needsSearch) {
+            if (failureCache != null) {
+                failureCache.retrieveFailures(simplet, nonCands);
+            }
+            domains = new VertexBitmap[k];
+            Map<Integer, VertexBitmap> parentDomains = parentSimplet.getDomains();
+            for (int v = 0; v < k; v++) {
+                VertexBitmap domain = parentDomains != null ? parentDomains.get(v) : null;
+                domains[v] = domain != null ? domain.copy() : complex.getCandVertices();
+                if (nonCands.containsKey(v)) {
+                    domains[v].andNot(nonCands.get(v));
+                }
+            }
+            if (!Settings.domainFilter.equalsIgnoreCase("none")
+                    && !DomainFilter.filter(complex, simplet, parentSimplet, parentDomains,
+                    plan, domains, minFreq, budget)) {
+                simplet.emptyImageMap();
+                addFailures(failureCache, nonCands);
+                return;
+            }
         }
+        state = MatchState.forThread(k, complex.getMaxDegree());
+        witnesses = new int[Math.min(Settings.maxWitnesses, 64) * k];
+        numWitnesses = 0;
+        extendWitnesses(parentSimplet, images);
+        if (needsSearch && Settings.supportMeasure.equalsIgnoreCase("mni-approx")) {
+            int decision = estimateSupport(domains, initial, images, nonCands, timeout);
+            if (decision == NOT_FOUND) {
+                simplet.emptyImageMap();
+                addFailures(failureCache, nonCands);
+                return;
+            }
+            if (decision == FOUND) {
+                for (int v : simplet.getVertices()) {
+                    images.put(v, fillImages(images.getOrDefault(v, new VertexBitmap()), initial));
+                }
+                keepResults(images, nonCands, domains, failureCache);
+                return;
+            }
+        }
+        // order the vertices according to size of image sets
+        // find enough matches for each vertex
         for (int v : simplet.getVertices()) {
-            Set<Integer> partialImageSet = Sets.newHashSet(initial);
-            partialImageSet.addAll(images.getOrDefault(v, Sets.newHashSet()));
+            VertexBitmap partialImageSet = initial.copy();
+            if (images.containsKey(v)) {
+                partialImageSet.or(images.get(v));
+            }
+            int numImages = partialImageSet.cardinality();
             // if we have enough matches for this vertex, we don't need to examine it
-            if (partialImageSet.size() < minFreq) {
-                List<Integer> ordered_vertices = Lists.newArrayList();
-                ordered_vertices.add(v);
-                simplet.dfs(ordered_vertices, v);
-                List<Integer> candidates = Lists.newArrayList(complex.getCandVertices());
-                if (!parent.isEmpty()) {
-                    Utils.customSort(candidates, parent.getOrDefault(v, Collections.EMPTY_SET));
+            if (numImages < minFreq) {
+                int[] candidates = Utils.customSort(domains[v].copy(), parent.get(v));
+                VertexBitmap nonCandsV = nonCands.computeIfAbsent(v, k -> new VertexBitmap());
+                if (candidates.length < minFreq) {
+                    simplet.emptyImageMap();
+                    addFailures(failureCache, nonCands);
+                    return;
                 }
-                int c = partialImageSet.size();
-                List<Integer> toResume = Lists.newArrayList();
-                boolean resume = true;
-                if (candidates.size() < minFreq) {
+                CandidateScan scan = new CandidateScan(v, domains, timeout, true,
+                        images, partialImageSet, nonCandsV, candidates.length, numImages, numImages);
+                run(scan, candidates);
+                // early stop if the simplet cannot be frequent
+                if (scan.infrequent) {
                     simplet.emptyImageMap();
+                    addFailures(failureCache, nonCands);
+                    return;
+                }
+                if (scan.cancelled) {
+                    simplet.setIncomplete(true);
+                } else if (!scan.stopped) {
+                    // retry the candidates that timed out, within the budget of the simplet only
+                    int[] toResume = scan.timedOut.stream().mapToInt(n -> n).toArray();
+                    CandidateScan resume = new CandidateScan(v, domains, -1, true,
+                            images, partialImageSet, nonCandsV, toResume.length, 0, scan.numImages);
+                    run(resume, toResume);
+                    if (resume.infrequent) {
+                        simplet.emptyImageMap();
+                        addFailures(failureCache, nonCands);
+                        return;
+                    }
+                    if (resume.cancelled) {
+                        simplet.setIncomplete(true);
+                    }
+                }
+            }
+            images.put(v, fillImages(images.getOrDefault(v, new VertexBitmap()), partialImageSet));
+            if (simplet.isIncomplete()) {
+                break;
+            }
+        }
+        // the vertices not examined keep the images propagated to them
+        for (int v : simplet.getVertices()) {
+            images.computeIfAbsent(v, x -> new VertexBitmap());
+        }
+        keepResults(images, nonCands, domains, failureCache);
+    }
+
+    // adds to the images of a vertex those in more, until they are minFreq
+    private VertexBitmap fillImages(VertexBitmap imageV, VertexBitmap more) {
+        int numImageV = imageV.cardinality();
+        PrimitiveIterator.OfInt it = more.iterator();
+        while (it.hasNext() && numImageV < minFreq) {
+            int m = it.nextInt();
+            if (!imageV.contains(m)) {
+                imageV.add(m);
+                numImageV++;
+            }
+        }
+        return imageV;
+    }
+
+    // what the min-based search leaves to the simplet and to its extensions; domains
+    // is null if no search was needed
+    private void keepResults(Map<Integer, VertexBitmap> images, Map<Integer, VertexBitmap> nonCands,
+            VertexBitmap[] domains, NegativeCache failureCache) {
+        simplet.setImages(images);
+        simplet.setNonCands(nonCands);
+        if (domains != null) {
+            Map<Integer, VertexBitmap> domainMap = Maps.newHashMap();
+            for (int v = 0; v < k; v++) {
+                domainMap.put(v, domains[v]);
+            }
+            simplet.setDomains(domainMap);
+            addFailures(failureCache, nonCands);
+        }
+        simplet.setWitnesses(Arrays.copyOf(witnesses, numWitnesses * k));
+    }
+
+    // Approximate support (supportMeasure=mni-approx): the image set of each vertex is
+    // made of its known images (those in simplices with k vertices, and those found so
+    // far) and of an unknown share of the rest of its domain, estimated by searching a
+    // uniform sample of Settings.approxSamples candidates. The Wilson intervals of the
+    // shares, which hold together with Settings.approxConfidence, bound the size of each
+    // image set, and their minimum bounds the support; a candidate timed out counts as
+    // an image for the upper bound only. Returns FOUND if the whole interval is at least
+    // minFreq, in which case the simplet gets the estimate and the interval as support,
+    // NOT_FOUND if it is below minFreq, and TIMED_OUT if the sample cannot decide (or the
+    // budget expired), leaving the images and the failures found to the exact search.
+    // The images kept by an estimated simplet are those found, topped up to minFreq by
+    // the vertices in simplices with k vertices: a lower bound that, unlike the images
+    // of the min-based search, may hold fewer than minFreq vertices. They are neither
+    // its support nor its occurrences, which are not written to the occurrence map
+    private int estimateSupport(VertexBitmap[] domains, VertexBitmap initial,
+            Map<Integer, VertexBitmap> images, Map<Integer, VertexBitmap> nonCands, long timeout) {
+        double z = WilsonInterval.z(Settings.approxConfidence, k);
+        SplittableRandom random = new SplittableRandom(simplet.getId());
+        Budget sampleBudget = budget.child(-1);
+        double estimate = Double.MAX_VALUE;
+        double lower = Double.MAX_VALUE;
+        double upper = Double.MAX_VALUE;
+        for (int v = 0; v < k; v++) {
+            VertexBitmap known = initial.copy();
+            if (images.containsKey(v)) {
+                known.or(images.get(v));
+            }
+            int[] pool = domains[v].copy().andNot(known).toArray();
+            int samples = Math.min(Settings.approxSamples, pool.length);
+            VertexBitmap nonCandsV = nonCands.computeIfAbsent(v, x -> new VertexBitmap());
+            int found = 0;
+            int timedOut = 0;
+            for (int i = 0; i < samples; i++) {
+                if (sampleBudget.check()) {
+                    return TIMED_OUT;
+                }
+                // partial Fisher-Yates shuffle of the pool
+                int j = i + random.nextInt(pool.length - i);
+                int n = pool[j];
+                pool[j] = pool[i];
+                pool[i] = n;
+                if (nonCandsV.contains(n) || complex.getDegree(n) < plan.getDegree(v)) {
+                    continue;
+                }
+                state.reset(k);
+                state.assignment[v] = n;
+                int match = matchFrom(v, domains, timeout < 0 ? sampleBudget : sampleBudget.child(timeout));
+                if (match == FOUND) {
+                    updateAndPropagateImageSets(images, state.assignment);
+                    addWitness(state.assignment);
+                    found++;
+                } else if (match == TIMED_OUT) {
+                    timedOut++;
+                } else {
+                    nonCandsV.add(n);
+                }
+            }
+            double numKnown = known.cardinality();
+            if (samples == pool.length) {
+                // the whole domain has been searched
+                estimate = Math.min(estimate, numKnown + found);
+                lower = Math.min(lower, numKnown + found);
+                upper = Math.min(upper, numKnown + found + timedOut);
+            } else {
+                estimate = Math.min(estimate, numKnown + (double) pool.length * found / samples);
+                lower = Math.min(lower, numKnown + pool.length * WilsonInterval.lower(found, samples, z));
+                upper = Math.min(upper, numKnown + pool.length * WilsonInterval.upper(found + timedOut, samples, z));
+            }
+            if (upper < minFreq) {
+                return NOT_FOUND;
+            }
+        }
+        if (lower < minFreq) {
+            return TIMED_OUT;
+        }
+        simplet.setSupportInterval(estimate, lower, upper);
+        return FOUND;
+    }
+
+    // the failures hold for the simplet even if it turns out infrequent
+    private void addFailures(NegativeCache failureCache, Map<Integer, VertexBitmap> nonCands) {
+        if (failureCache != null) {
+            failureCache.addFailures(simplet, nonCands);
+        }
+    }
+
+    // Adds to the image sets the embeddings extending those kept by the parent. The
+    // simplet has the vertices of the parent, with the same ids, and at most a new one,
+    // so a witness of the parent gives the image of every other vertex: it only remains
+    // to pick the new vertex among the common neighbours of its neighbours and to check
+    // the simplices the extension added.
+    private void extendWitnesses(Simplet parentSimplet, Map<Integer, VertexBitmap> images) {
+        int[] parentWitnesses = parentSimplet.getWitnesses();
+        int u = parentSimplet.getNumVertices();
+        if (parentWitnesses.length == 0 || k > u + 1) {
+            return;
+        }
+        // maximal simplices of the simplet that are not faces of a maximal simplex of the parent
+        Set<Simplex> parentSimplices = parentSimplet.getAllHDSimplices();
+        List<int[]> newFaces = Lists.newArrayList();
+        for (Simplex s : simplet.getAllHDSimplices()) {
+            boolean impliedByCandidates = s.getNumVertices() == 2 && s.contains(u);
+            if (!impliedByCandidates && s.getNumVertices() > 1
+                    && parentSimplices.stream().noneMatch(p -> p.containsAll(s.getVertices()))) {
+                newFaces.add(s.getVertices().stream().mapToInt(x -> x).toArray());
+            }
+        }
+        int[] backNeighbors = k > u ? simplet.getNeighborsOf(u).stream().mapToInt(x -> x).toArray() : null;
+        int[] assignment = state.assignment;
+        int[] cands = state.candidates[0];
+        for (int w = 0; w + u <= parentWitnesses.length && !budget.expired(); w += u) {
+            System.arraycopy(parentWitnesses, w, assignment, 0, u);
+            if (backNeighbors == null) {
+                if (containsFaces(newFaces)) {
+                    updateAndPropagateImageSets(images, assignment);
+                    addWitness(assignment);
+                }
+                continue;
+            }
+            int size = complex.copyNeighborsOf(assignment[backNeighbors[0]], cands);
+            for (int j = 1; j < backNeighbors.length && size > 0; j++) {
+                size = complex.retainNeighborsOf(assignment[backNeighbors[j]], cands, size);
+            }
+            // every valid choice of the new vertex is an embedding, but one is kept as witness
+            boolean found = false;
+            for (int i = 0; i < size; i++) {
+                assignment[u] = cands[i];
+                if (!isAssigned(cands[i], u) && containsFaces(newFaces)) {
+                    updateAndPropagateImageSets(images, assignment);
+                    if (!found) {
+                        addWitness(assignment);
+                        found = true;
+                    }
+                }
+            }
+        }
+    }
+
+    // whether n is assigned to one of the vertices 0..u-1
+    private boolean isAssigned(int n, int u) {
+        for (int i = 0; i < u; i++) {
+            if (state.assignment[i] == n) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // whether the images of the vertices of each face form a simplex in the complex
+    private boolean containsFaces(List<int[]> faces) {
+        int[] simplex = state.simplex;
+        for (int[] face : faces) {
+            for (int i = 0; i < face.length; i++) {
+                simplex[i] = state.assignment[face[i]];
+            }
+            if (!complex.contains(simplex, face.length)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // keeps the full match, if there is still room (min-based search only)
+    private void addWitness(int[] match) {
+        if (witnesses == null || numWitnesses >= Settings.maxWitnesses) {
+            return;
+        }
+        if ((numWitnesses + 1) * k > witnesses.length) {
+            witnesses = Arrays.copyOf(witnesses, Math.min(2 * witnesses.length, Settings.maxWitnesses * k));
+        }
+        System.arraycopy(match, 0, witnesses, numWitnesses * k, k);
+        numWitnesses++;
+    }
+
+    // examines the candidates of the scan, split in chunks among workers if parallel
+    private void run(CandidateScan scan, int[] candidates) {
+        ForkJoinPool pool = ForkJoinTask.getPool();
+        int parallelism = pool != null ? pool.getParallelism() : ForkJoinPool.getCommonPoolParallelism();
+        int chunk = Math.max(MIN_CHUNK, candidates.length / (4 * parallelism));
+        if (!parallel || candidates.length <= chunk) {
+            scan.scan(candidates, 0, candidates.length, this);
+            return;
+        }
+        int chunks = (candidates.length + chunk - 1) / chunk;
+        IntStream.range(0, chunks).parallel().forEach(i -> {
+            MatchFinder worker = new MatchFinder(this);
+            scan.scan(candidates, i * chunk, Math.min(candidates.length, (i + 1) * chunk), worker);
+            synchronized (scan) {
+                searches += worker.searches;
+                visitedNodes += worker.visitedNodes;
+                estimatedNodes += worker.estimatedNodes;
+            }
+        });
+    }
+
+    // adds the embeddings of the searches from root to the overlap graph and to the image
+    // sets; with symmetry breaking, the images are spread over the orbits fixing root, so
+    // that they are the same as if the embeddings left out had been visited as well
+    private class OverlapCollector implements EmbeddingVisitor {
+
+        final OverlapGraph og;
+        final Map<Integer, VertexBitmap> images;
+        final int root;
+        int found;
+
+        OverlapCollector(OverlapGraph og, Map<Integer, VertexBitmap> images, int root) {
+            this.og = og;
+            this.images = images;
+            this.root = root;
+        }
+
+        @Override
+        public boolean visit(int[] embedding) {
+            Map<Integer, Integer> M = Maps.newHashMap();
+            for (int u = 0; u < k; u++) {
+                M.put(u, embedding[u]);
+                int[] orbit = plan.getRootOrbit(root, u);
+                if (orbit == null) {
+                    images.computeIfAbsent(u, x -> new VertexBitmap()).add(embedding[u]);
+                } else {
+                    for (int ot : orbit) {
+                        images.computeIfAbsent(ot, x -> new VertexBitmap()).add(embedding[u]);
+                    }
+                }
+            }
+            og.add(M);
+            found++;
+            return true;
+        }
+    }
+
+    // examination of the candidates of a simplet vertex, possibly shared by several
+    // workers: the outcomes are merged under the lock of the scan, and the workers
+    // stop as soon as the vertex cannot reach minFreq images or, if stopWhenFrequent,
+    // has reached them. The candidates being searched count as possible images, so
+    // that no worker gives up on the simplet while another one may still find them.
+    // If the budget of the simplet expires, the scan is cancelled.
+    private class CandidateScan {
+
+        final int v;
+        final VertexBitmap[] upperBounds; // upper bounds to the image sets, or domains in the min-based search
+        final long timeout; // budget of each candidate, -1 for none
+        final boolean stopWhenFrequent;
+        final Map<Integer, VertexBitmap> images;
+        final VertexBitmap partialImageSet;
+        final VertexBitmap nonCandsV; // null in the exact search
+        final List<Integer> timedOut = Lists.newArrayList();
+        final int numCandidates;
+        int c; // candidates examined
+        int numImages;
+        int inFlight; // candidates being searched
+        boolean infrequent;
+        boolean cancelled;
+        volatile boolean stopped;
+
+        CandidateScan(int v, VertexBitmap[] upperBounds, long timeout, boolean stopWhenFrequent,
+                Map<Integer, VertexBitmap> images, VertexBitmap partialImageSet, VertexBitmap nonCandsV,
+                int numCandidates, int c, int numImages) {
+            this.v = v;
+            this.upperBounds = upperBounds;
+            this.timeout = timeout;
+            this.stopWhenFrequent = stopWhenFrequent;
+            this.images = images;
+            this.partialImageSet = partialImageSet;
+            this.nonCandsV = nonCandsV;
+            this.numCandidates = numCandidates;
+            this.c = c;
+            this.numImages = numImages;
+        }
+
+        void scan(int[] candidates, int from, int to, MatchFinder worker) {
+            Budget workerBudget = budget.child(-1);
+            for (int i = from; i < to && !stopped; i++) {
+                // the budget of each candidate starts polling from scratch, so that
+                // short searches would never look at the clock
+                if (workerBudget.check()) {
+                    cancel();
                     return;
                 }
-                for (Integer n : candidates) {
+                int n = candidates[i];
+                synchronized (this) {
                     if (partialImageSet.contains(n)) {
                         continue;
                     }
                     c += 1;
-                    if (nonCands.getOrDefault(v, Sets.newHashSet()).contains(n)) {
+                    if ((nonCandsV != null && nonCandsV.contains(n)) || complex.getDegree(n) < plan.getDegree(v)) {
+                        checkBounds();
                         continue;
                     }
-                    if (complex.getNeighborsOf(n).size() < simplet.getNeighborsOf(v).size()) {
-                        continue;
-                    }
-                    Map<Integer, Integer> M = Maps.newHashMap();
-                    M.put(v, n);
-                    // call recursive function to get a match
-                    Map<Integer, Integer> match = findMatch(M, 0, ordered_vertices, System.currentTimeMillis(), timeout);
-                    if (match.size() == simplet.getNumVertices()) {
+                    inFlight++;
+                }
+                worker.state.reset(k);
+                worker.state.assignment[v] = n;
+                // call recursive function to get a match
+                int match = worker.matchFrom(v, upperBounds, timeout < 0 ? workerBudget : workerBudget.child(timeout));
+                boolean cancelling = match == TIMED_OUT && workerBudget.check();
+                synchronized (this) {
+                    inFlight--;
+                    if (cancelling) {
+                        // the budget of the simplet expired, not the one of the candidate
+                        cancelled = true;
+                        stopped = true;
+                    } else if (match == FOUND) {
                         // update image sets with the valid matches
-                        updateAndPropagateImageSets(images, match);
+                        updateAndPropagateImageSets(images, worker.state.assignment);
+                        addWitness(worker.state.assignment);
                         partialImageSet.add(n);
-                    } else if (match.isEmpty()) {
-                        toResume.add(n);
+                        numImages++;
+                    } else if (match == TIMED_OUT) {
+                        timedOut.add(n);
                         c -= 1;
-                    } else {
-                        Set<Integer> tmp = nonCands.getOrDefault(v, Sets.newHashSet());
-                        tmp.add(n);
-                        nonCands.put(v, tmp);
-                    }
-                    // early stop if the simplet cannot be frequent
-                    if (candidates.size() - c + partialImageSet.size() < minFreq) {
-                        simplet.emptyImageMap();
-                        return;
-                    } else if (partialImageSet.size() >= minFreq) {
-                        resume = false;
-                        break;
-                    }
-                }
-                if (resume) {
-                    c = 0;
-                    for (int n : toResume) {
-                        if (partialImageSet.contains(n)) {
-                            continue;
-                        }
-                        c += 1;
-                        if (nonCands.getOrDefault(v, Sets.newHashSet()).contains(n)) {
-                            continue;
-                        }
-                        Map<Integer, Integer> M = Maps.newHashMap();
-                        M.put(v, n);
-                        // call recursive function to get a match
-                        Map<Integer, Integer> match = findMatch(M, 0, ordered_vertices, System.currentTimeMillis(), -1);
-                        if (match.size() == simplet.getNumVertices()) {
-                            // update image sets with the valid matches
-                            updateAndPropagateImageSets(images, match);
-                            partialImageSet.add(n);
-                        } else {
-                            Set<Integer> tmp = nonCands.getOrDefault(v, Sets.newHashSet());
-                            tmp.add(n);
-                            nonCands.put(v, tmp);
-                        }
-                        // early stop if the simplet cannot be frequent
-                        if (toResume.size() - c + partialImageSet.size() < minFreq) {
-                            simplet.emptyImageMap();
-                            return;
-                        } else if (partialImageSet.size() >= minFreq) {
-                            break;
-                        }
+                    } else if (nonCandsV != null) {
+                        nonCandsV.add(n);
                     }
+                    checkBounds();
                 }
             }
-            Set<Integer> imageV = images.getOrDefault(v, Sets.newHashSet());
-            for (int m : partialImageSet) {
-                if (imageV.size() >= minFreq) {
-                    break;
-                }
-                imageV.add(m);
+        }
+
+        private synchronized void cancel() {
+            cancelled = true;
+            stopped = true;
+        }
+
+        private void checkBounds() {
+            if (numCandidates - c + inFlight + numImages < minFreq) {
+                infrequent = true;
+                stopped = true;
+            } else if (stopWhenFrequent && numImages >= minFreq) {
+                stopped = true;
             }
-            images.put(v, imageV);
         }
-        simplet.setImages(images);
-        simplet.setNonCands(nonCands);
     }
 
-    // EXACT
-    private Map<Integer, Integer> findMatch(Map<Integer, Integer> M,
-            int vertexID,
-            List<Integer> vertexOrder) {
-        // M is a valid match
-        if (M.size() == vertexOrder.size()) {
-            return M;
+    // extends the match in state.assignment, where only root is assigned, to a full match;
+    // its vertices are taken from the upper bounds to their image sets, if not null.
+    // TIMED_OUT if the budget expires first
+    private int matchFrom(int root, VertexBitmap[] upperBounds, Budget budget) {
+        searches++;
+        estimatedNodes += plan.getEstimatedNodes(root);
+        if (matcher != null) {
+            return matcher.findMatch(root, complex, upperBounds, state.assignment,
+                    state.candidates, state.simplex, budget);
         }
-        // find next vertex to examine
-        while (M.containsKey(vertexOrder.get(vertexID))) {
-            vertexID++;
+        return findMatch(root, 1, upperBounds, budget);
+    }
+
+    // extends the match in state.assignment following the plan of the root vertex, from the
+    // given step; FOUND if a full match has been found, in which case it is left in
+    // state.assignment, TIMED_OUT if the budget expired first
+    private int findMatch(int root, int step, VertexBitmap[] upperBounds, Budget budget) {
+        if (budget.expired()) {
+            return TIMED_OUT;
         }
-        if (vertexID > vertexOrder.size()) {
-            return M;
+        int[] vertexOrder = plan.getOrder(root);
+        // the match is complete
+        if (step == vertexOrder.length) {
+            return FOUND;
         }
-        int w = vertexOrder.get(vertexID);
+        int w = vertexOrder[step];
         // the set of candidates is the intersection among:
         // 1. upper-bound to the image set
         // 2. vertices not already assigned to a simplet vertex
         // 3. neighbours of vertices assigned to simplex vertices that are neighbours of w 
         // 4. the assignment is valid only if it preserves the simplex memberships
-        
-        Set<Integer> ngbs = simplet.getNeighborsOf(w);
-        Set<Integer> candidates = Sets.newHashSet(simplet.getImageOf(w));
-        for (int ngb : ngbs) {
-            if (M.containsKey(ngb)) {
-                Set<Integer> ngbs_c = complex.getNeighborsOf(M.get(ngb));
-                candidates.retainAll(ngbs_c);
-            }
-        }
-        for (int n: candidates) {
-                // the assignment is valid only if it preserves the simplex memberships
-                if (satisfiesConstraints(M, w, n)) {
-                    Map<Integer, Integer> newM = Maps.newHashMap(M);
-                    newM.put(w, n);
-                    Map<Integer, Integer> updM = findMatch(newM, vertexID + 1, vertexOrder);
-                    if (updM.size() ==  vertexOrder.size()) {
-                        return updM;
-                    }
+        VertexBitmap image = upperBounds != null ? upperBounds[w] : null;
+        int[] candidates = state.candidates[step];
+        int size = getCandidates(root, step, candidates);
+        if (size < 0) {
+            candidates = image != null ? image.toArray() : complex.getCandVertices().toArray();
+            size = candidates.length;
+        }
+        for (int i = 0; i < size; i++) {
+            int n = candidates[i];
+            if (image != null && !image.contains(n)) {
+                continue;
+            }
+            // the assignment is valid only if it preserves the simplex memberships
+            if (satisfiesConstraints(root, step, n)) {
+                state.assignment[w] = n;
+                visitedNodes++;
+                int res = findMatch(root, step + 1, upperBounds, budget);
+                if (res != NOT_FOUND) {
+                    return res;
                 }
+                state.assignment[w] = -1;
+            } else if (budget.expired()) {
+                return TIMED_OUT;
+            }
         }
-        return M;
+        return NOT_FOUND;
     }
     
-    // MIN-BASED
-    private Map<Integer, Integer> findMatch(Map<Integer, Integer> M,
-            int vertexID,
-            List<Integer> vertexOrder,
-            long startTime, 
-            long timeout) {
-        if (timeout > -1 && (System.currentTimeMillis() - startTime > timeout)) {
-            return Collections.EMPTY_MAP;
-        }
-        // M is a valid match
-        if (M.size() == vertexOrder.size()) {
-            return M;
-        }
-        // find next vertex to examine
-        while (M.containsKey(vertexOrder.get(vertexID))) {
-            vertexID++;
-        }
-        if (vertexID > vertexOrder.size()) {
-            return M;
-        }
-        int w = vertexOrder.get(vertexID);
+    // Visits every embedding of the simplet mapping root to n, one at a time and without
+    // keeping them, until the visitor stops. With symmetry breaking, the embeddings that
+    // differ by an automorphism fixing root are visited once (see MatchPlan.getRootOrbit).
+    // The upper bounds to the images are those of the simplet. Returns FOUND if some
+    // embedding has been visited, NOT_FOUND, STOPPED by the visitor, or TIMED_OUT
+    public int forEachEmbedding(int root, int n, EmbeddingVisitor visitor, Budget budget) {
+        if (state == null) {
+            state = MatchState.forThread(k, complex.getMaxDegree());
+        }
+        state.reset(k);
+        state.assignment[root] = n;
+        return findAllMatches(root, 1, visitor, budget);
+    }
+
+    // hands to visitor every full match extending the one in state.assignment
+    private int findAllMatches(int root, int step, EmbeddingVisitor visitor, Budget budget) {
+        if (budget.expired()) {
+            return TIMED_OUT;
+        }
+        int[] vertexOrder = plan.getOrder(root);
+        if (step == vertexOrder.length) {
+            return visitor.visit(state.assignment) ? FOUND : STOPPED;
+        }
+        int w = vertexOrder[step];
         // the set of candidates is the intersection among:
         // 1. upper-bound to the image set
         // 2. vertices not already assigned to a simplet vertex
         // 3. neighbours of vertices assigned to simplex vertices that are neighbours of w 
-        // 4. the assignment is valid only if it preserves the simplex memberships
-        Set<Integer> ngbs = simplet.getNeighborsOf(w);
-        Set<Integer> candidates = Sets.newHashSet();
-        boolean start = true;
-        for (int ngb : ngbs) {
-            if (M.containsKey(ngb)) {
-                Set<Integer> ngbs_c = complex.getNeighborsOf(M.get(ngb));
-                if (start) {
-                    start = false;
-                    candidates.addAll(ngbs_c);
-                } else {
-                    candidates.retainAll(ngbs_c);
-                }
-            }
-        }
-        if (start) {
-            candidates.addAll(complex.getCandVertices());
+        VertexBitmap image = simplet.getImageOf(w);
+        int[] candidates = state.candidates[step];
+        int size = getCandidates(root, step, candidates);
+        if (size < 0) {
+            candidates = image.toArray();
+            size = candidates.length;
         }
-        for (int n : candidates) {    
-            if (satisfiesConstraints(M, w, n)) {
-                Map<Integer, Integer> newM = Maps.newHashMap(M);
-                newM.put(w, n);
-                Map<Integer, Integer> updM = findMatch(newM, vertexID + 1, vertexOrder, startTime, timeout);
-                if (updM.size() ==  vertexOrder.size() || updM.isEmpty()) {
-                    return updM;
-                } 
-            } else if (timeout > -1 && (System.currentTimeMillis() - startTime > timeout)) {
-                return Collections.EMPTY_MAP;
+        int outcome = NOT_FOUND;
+        for (int i = 0; i < size; i++) {
+            int n = candidates[i];
+            // the assignment is valid only if it preserves the simplex memberships
+            if (image.contains(n) && satisfiesConstraints(root, step, n)) {
+                state.assignment[w] = n;
+                visitedNodes++;
+                int res = findAllMatches(root, step + 1, visitor, budget);
+                state.assignment[w] = -1;
+                if (res == TIMED_OUT || res == STOPPED) {
+                    return res;
+                }
+                if (res == FOUND) {
+                    outcome = FOUND;
+                }
             }
         }
-        return M;
+        return outcome;
     }
-    
-    private Map<Integer, Set<Integer>> findAllMatches(OverlapGraph og,
-            Map<Integer, Integer> M,
-            int vertexID,
-            List<Integer> vertexOrder) {
 
-        Map<Integer, Set<Integer>> allMatches = Maps.newHashMap();
-        if (M.size() == vertexOrder.size()) {
-            og.add(M);
-            for (int k : M.keySet()) {
-                Set<Integer> tmp = Sets.newHashSet();
-                tmp.add(M.get(k));
-                allMatches.put(k, tmp);
-            }
-            return allMatches;
+    // writes in cands the sorted intersection of the neighbourhoods of the complex vertices
+    // assigned to the neighbours of the vertex of the step, and returns its size; -1 if 
+    // none of them has been assigned yet
+    private int getCandidates(int root, int step, int[] cands) {
+        int[] assignment = state.assignment;
+        int[] backNeighbors = plan.getBackNeighbors(root, step);
+        if (backNeighbors.length == 0) {
+            return -1;
         }
-        // find next vertex to examine
-        while (M.containsKey(vertexOrder.get(vertexID))) {
-            vertexID++;
+        // start from the assigned neighbour with the smallest neighbourhood
+        int first = assignment[backNeighbors[0]];
+        for (int ngb : backNeighbors) {
+            if (complex.getDegree(assignment[ngb]) < complex.getDegree(first)) {
+                first = assignment[ngb];
+            }
         }
-        if (vertexID > vertexOrder.size()) {
-            return allMatches;
+        int size = complex.copyNeighborsOf(first, cands);
+        for (int j = 0; j < backNeighbors.length && size > 0; j++) {
+            if (assignment[backNeighbors[j]] != first) {
+                size = complex.retainNeighborsOf(assignment[backNeighbors[j]], cands, size);
+            }
         }
-        int w = vertexOrder.get(vertexID);
-        final int vID = vertexID;
-        // the set of candidates is the intersection among:
-        // 1. upper-bound to the image set
-        // 2. vertices not already assigned to a simplet vertex
-        // 3. neighbours of vertices assigned to simplex vertices that are neighbours of w 
-        simplet.getImageOf(w).stream()
-                // the assignment is valid only if it preserves the simplex memberships
-                .filter(n -> satisfiesConstraints(M, w, n))
-                .forEach(n -> {
-                    Map<Integer, Integer> newM = Maps.newHashMap(M);
-                    newM.put(w, n);
-                    Map<Integer, Set<Integer>> currMatches = findAllMatches(og, newM, vID + 1, 
-                            vertexOrder);
-                    for (int k : currMatches.keySet()) {
-                        Set<Integer> tmp = allMatches.getOrDefault(k, Sets.newHashSet());
-                        tmp.addAll(currMatches.get(k));
-                        allMatches.put(k, tmp);
-                    }
-                }); 
-        return allMatches;
+        return size;
     }
 
-    private boolean satisfiesConstraints(Map<Integer, Integer> M, int w, int n) {
-        if (complex.getNeighborsOf(n).size() < simplet.getNeighborsOf(w).size() ||
-                M.entrySet().stream().anyMatch(e -> (e.getValue() == n) || 
-                (simplet.areNeighbors(e.getKey(), w) && !complex.getNeighborsOf(e.getValue()).contains(n)))) {
+    // whether n can be assigned to the vertex of the step; the adjacencies with the
+    // vertices already assigned are guaranteed by the candidates
+    private boolean satisfiesConstraints(int root, int step, int n) {
+        int[] vertexOrder = plan.getOrder(root);
+        if (complex.getDegree(n) < plan.getDegree(vertexOrder[step])) {
             return false;
         }
-        for (Simplex s : simplet.getAllHDSimplices()) {
-            // for all the simplices containing w
-            if (s.contains(w) && s.getNumVertices() > 2) {
-                List<Integer> simplex = Lists.newArrayList();
-                simplex.add(n);
-                M.keySet().stream()
-                        .filter(v -> (s.contains(v)))
-                        .forEach(v -> simplex.add(M.get(v)));
-                //the complex vertices matched to simplet vertices in s must form a simplex in the complex 
-                if (!complex.contains(simplex)) {
-                    return false;
+        int[] assignment = state.assignment;
+        for (int i = 0; i < step; i++) {
+            if (assignment[vertexOrder[i]] == n) {
+                return false;
+            }
+        }
+        // symmetry breaking
+        for (int u : plan.getSmaller(root, step)) {
+            if (assignment[u] >= n) {
+                return false;
+            }
+        }
+        for (int u : plan.getLarger(root, step)) {
+            if (assignment[u] <= n) {
+                return false;
+            }
+        }
+        int[] simplex = state.simplex;
+        for (int[] face : plan.getFaces(root, step)) {
+            int size = 0;
+            simplex[size++] = n;
+            for (int u : face) {
+                if (u != vertexOrder[step]) {
+                    simplex[size++] = assignment[u];
                 }
             }
+            //the complex vertices matched to simplet vertices in the face must form a simplex in the complex 
+            if (!complex.contains(simplex, size)) {
+                return false;
+            }
         }
         return true;
     }
 
-    private void updateImageSets(Map<Integer, Set<Integer>> images, Map<Integer, Set<Integer>> matches) {
-        matches.entrySet().stream().forEach(e -> {
-            Set<Integer> tmp = images.getOrDefault(e.getKey(), Sets.newHashSet());
-            tmp.addAll(e.getValue());
-            images.put(e.getKey(), tmp);
-        });
+    public long getSearches() {
+        return searches;
+    }
+
+    public long getVisitedNodes() {
+        return visitedNodes;
     }
 
-    private void updateAndPropagateImageSets(Map<Integer, Set<Integer>> images, Map<Integer, Integer> match) {
-        match.entrySet().stream().forEach(e -> {
-            for (int ot : simplet.getOrbitOf(e.getKey())) {
-                Set<Integer> tmp = images.getOrDefault(ot, Sets.newHashSet());
-                tmp.add(e.getValue());
-                images.put(ot, tmp);
+    public double getEstimatedNodes() {
+        return estimatedNodes;
+    }
+
+    // adds the full match to the image sets of the vertices and of their orbits
+    private void updateAndPropagateImageSets(Map<Integer, VertexBitmap> images, int[] match) {
+        if (orbits == null) {
+            orbits = new int[k][];
+            for (int v = 0; v < k; v++) {
+                orbits[v] = simplet.getOrbitOf(v).stream().mapToInt(u -> u).toArray();
             }
-        });
+        }
+        for (int v = 0; v < k; v++) {
+            for (int ot : orbits[v]) {
+                images.computeIfAbsent(ot, x -> new VertexBitmap()).add(match[v]);
+            }
+        }
     }
     
 }
@@ -0,0 +1,332 @@
+package fsminer.search;
+
+import com.google.common.collect.Lists;
+import fi.tkk.ics.jbliss.pattern.JBlissPattern;
+import fsminer.structures.Simplet;
+import fsminer.structures.Simplex;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Search plan of a simplet, compiled once and then only read, so that it can be
+// shared by every search on the simplet. For each root vertex it gives the
+// order in which the vertices are assigned (a dfs from the root) and, for each
+// step of that order:
+// - the neighbours of the vertex of the step that are already assigned: the
+//   candidates for the vertex are the common neighbours of their images;
+// - the faces to check: for each maximal simplex of the simplet containing the
+//   vertex of the step, its vertices assigned so far, if they are at least 3
+//   (with 1 or 2 vertices the check is implied by the candidates);
+// - with symmetry breaking, the vertices assigned so far whose images must be
+//   smaller, or larger, than the image of the vertex of the step. The automorphisms
+//   of the simplet fixing the root turn a match into the other matches of the same
+//   occurrence with the same root image: the conditions keep one of them, so that
+//   a search from the root visits 1/|automorphisms fixing the root| of the tree.
+//   Every search looks for the matches with a given root image, so the automorphisms
+//   moving the root cannot be broken: the root would be denied some of its images.
+// Given a CostModel, the plan also estimates the size of the search tree of each
+// root, and can pick the order greedily: the next vertex is the one with the
+// fewest expected candidates, that is the one most constrained by the vertices
+// already assigned and by the faces it closes.
+// The vertices of the simplet are 0..k-1.
+public class MatchPlan {
+
+    private final int k;
+    private final int[] degrees; // number of neighbours of each vertex in the simplet
+    private final int[][] orders; // root -> vertex order
+    private final int[][][] backNeighbors; // root -> step -> neighbours assigned at previous steps
+    private final int[][][][] faces; // root -> step -> faces to check
+    private final double[] estimates; // root -> expected number of nodes of the search tree
+    private final int[][][] smaller; // root -> step -> assigned vertices whose images must be smaller
+    private final int[][][] larger; // root -> step -> assigned vertices whose images must be larger
+    private final int[][][] rootOrbits; // root -> vertex -> its orbit under the automorphisms fixing root
+
+    public MatchPlan(Simplet simplet, boolean breakSymmetries) {
+        this(simplet, null, null, false, breakSymmetries);
+    }
+
+    // imageFractions gives, for each vertex, the fraction of the complex vertices in
+    // its upper bound; with costOrder the order is picked with the cost model,
+    // otherwise it is the dfs one
+    public MatchPlan(Simplet simplet, CostModel cost, double[] imageFractions, boolean costOrder,
+            boolean breakSymmetries) {
+        this.k = simplet.getNumVertices();
+        this.degrees = new int[k];
+        int[][] neighbors = new int[k][];
+        for (int v = 0; v < k; v++) {
+            neighbors[v] = simplet.getNeighborsOf(v).stream().mapToInt(u -> u).toArray();
+            degrees[v] = neighbors[v].length;
+        }
+        List<int[]> simplices = Lists.newArrayList();
+        for (Simplex s : simplet.getAllHDSimplices()) {
+            if (s.getNumVertices() > 2) {
+                simplices.add(s.getVertices().stream().mapToInt(u -> u).sorted().toArray());
+            }
+        }
+        this.orders = new int[k][];
+        this.backNeighbors = new int[k][][];
+        this.faces = new int[k][][][];
+        this.estimates = new double[k];
+        this.smaller = new int[k][][];
+        this.larger = new int[k][][];
+        this.rootOrbits = new int[k][][];
+        // without automorphisms there is nothing to break
+        boolean symmetric = breakSymmetries
+                && simplet.getVertices().stream().anyMatch(v -> simplet.getOrbitOf(v).size() > 1);
+        for (int root = 0; root < k; root++) {
+            orders[root] = costOrder
+                    ? cheapestOrder(neighbors, simplices, root, cost, imageFractions)
+                    : dfs(neighbors, root);
+            int steps = orders[root].length;
+            boolean[] assigned = new boolean[k];
+            backNeighbors[root] = new int[steps][];
+            faces[root] = new int[steps][][];
+            for (int step = 0; step < steps; step++) {
+                int w = orders[root][step];
+                backNeighbors[root][step] = Arrays.stream(neighbors[w]).filter(u -> assigned[u]).toArray();
+                assigned[w] = true;
+                faces[root][step] = facesToCheck(simplices, w, assigned);
+            }
+            List<int[]> conditions = symmetric ? symmetryConditions(simplet, root) : Lists.newArrayList();
+            smaller[root] = new int[steps][];
+            larger[root] = new int[steps][];
+            for (int step = 0; step < steps; step++) {
+                smaller[root][step] = conditionsAt(conditions, orders[root], step, 1, 0);
+                larger[root][step] = conditionsAt(conditions, orders[root], step, 0, 1);
+            }
+            estimates[root] = cost == null ? Double.NaN : estimate(root, cost, imageFractions);
+        }
+    }
+
+    // symmetry-breaking conditions (Grochow and Kellis) of the matches from root, as
+    // pairs {u, w} meaning that the image of u must be smaller than the one of w: while
+    // the automorphisms fixing root and the vertices picked so far move some vertex,
+    // the vertex with the largest orbit is picked and its image must be the smallest
+    // in its orbit. The orbits under the automorphisms fixing root are kept in rootOrbits
+    private List<int[]> symmetryConditions(Simplet simplet, int root) {
+        List<int[]> conditions = Lists.newArrayList();
+        List<Integer> fixed = Lists.newArrayList(root);
+        Map<Integer, Set<Integer>> orbits = new JBlissPattern(simplet.getAllHDSimplices(), fixed).getVertexOrbits();
+        rootOrbits[root] = new int[k][];
+        for (int v = 0; v < k; v++) {
+            Set<Integer> orbit = orbits.get(v);
+            rootOrbits[root][v] = orbit == null ? new int[]{v} : orbit.stream().mapToInt(u -> u).toArray();
+        }
+        while (true) {
+            int picked = -1;
+            for (int v = 0; v < k; v++) {
+                Set<Integer> orbit = orbits.get(v);
+                if (orbit != null && orbit.size() > 1
+                        && (picked < 0 || orbit.size() > orbits.get(picked).size())) {
+                    picked = v;
+                }
+            }
+            if (picked < 0) {
+                return conditions;
+            }
+            for (int u : orbits.get(picked)) {
+                if (u != picked) {
+                    conditions.add(new int[]{picked, u});
+                }
+            }
+            fixed.add(picked);
+            orbits = new JBlissPattern(simplet.getAllHDSimplices(), fixed).getVertexOrbits();
+        }
+    }
+
+    // the vertices assigned before step that are at position other of a condition whose
+    // position self is the vertex of the step
+    private static int[] conditionsAt(List<int[]> conditions, int[] order, int step, int self, int other) {
+        int w = order[step];
+        return conditions.stream()
+                .filter(c -> c[self] == w)
+                .mapToInt(c -> c[other])
+                .filter(u -> Arrays.stream(order, 0, step).anyMatch(x -> x == u))
+                .toArray();
+    }
+
+    // expected number of partial matches extended by a search from root
+    private double estimate(int root, CostModel cost, double[] imageFractions) {
+        double nodes = 0;
+        double level = 1;
+        for (int step = 1; step < orders[root].length; step++) {
+            int w = orders[root][step];
+            level *= cost.branching(degrees[w], backNeighbors[root][step].length,
+                    faceSizes(faces[root][step]), imageFractions[w]);
+            nodes += level;
+        }
+        return nodes;
+    }
+
+    // greedy order: the next vertex is the neighbour of the assigned ones with the
+    // fewest expected candidates; ties go to the vertex with more assigned
+    // neighbours, then to the one in the larger simplex, then to the smaller id
+    private static int[] cheapestOrder(int[][] neighbors, List<int[]> simplices, int root,
+            CostModel cost, double[] imageFractions) {
+        int k = neighbors.length;
+        int[] span = new int[k]; // size of the largest simplex containing each vertex
+        for (int v = 0; v < k; v++) {
+            span[v] = neighbors[v].length > 0 ? 2 : 1;
+        }
+        for (int[] s : simplices) {
+            for (int v : s) {
+                span[v] = Math.max(span[v], s.length);
+            }
+        }
+        int[] order = new int[k];
+        boolean[] assigned = new boolean[k];
+        int size = 0;
+        order[size++] = root;
+        assigned[root] = true;
+        while (size < k) {
+            int best = -1;
+            double bestCost = 0;
+            int bestBack = 0;
+            for (int w = 0; w < k; w++) {
+                if (assigned[w]) {
+                    continue;
+                }
+                int back = 0;
+                for (int u : neighbors[w]) {
+                    if (assigned[u]) {
+                        back++;
+                    }
+                }
+                if (back == 0) {
+                    continue;
+                }
+                assigned[w] = true;
+                double c = cost.branching(neighbors[w].length, back,
+                        faceSizes(facesToCheck(simplices, w, assigned)), imageFractions[w]);
+                assigned[w] = false;
+                if (best < 0 || c < bestCost
+                        || (c == bestCost && (back > bestBack || (back == bestBack && span[w] > span[best])))) {
+                    best = w;
+                    bestCost = c;
+                    bestBack = back;
+                }
+            }
+            if (best < 0) {
+                break; // the other vertices are not reachable from root
+            }
+            order[size++] = best;
+            assigned[best] = true;
+        }
+        return Arrays.copyOf(order, size);
+    }
+
+    private static int[] faceSizes(int[][] faces) {
+        int[] sizes = new int[faces.length];
+        for (int i = 0; i < faces.length; i++) {
+            sizes[i] = faces[i].length;
+        }
+        return sizes;
+    }
+
+    // same order as Simplet.dfs, with a visited array in place of the list lookups
+    private static int[] dfs(int[][] neighbors, int root) {
+        int[] order = new int[neighbors.length];
+        boolean[] visited = new boolean[neighbors.length];
+        int size = 0;
+        order[size++] = root;
+        visited[root] = true;
+        int[] stack = new int[neighbors.length];
+        int[] next = new int[neighbors.length]; // position in the neighbour list of each vertex in the stack
+        int top = 0;
+        stack[0] = root;
+        while (top >= 0) {
+            int v = stack[top];
+            if (next[top] == neighbors[v].length) {
+                top--;
+                continue;
+            }
+            int w = neighbors[v][next[top]++];
+            if (!visited[w]) {
+                visited[w] = true;
+                order[size++] = w;
+                stack[++top] = w;
+                next[top] = 0;
+            }
+        }
+        return Arrays.copyOf(order, size);
+    }
+
+    // assigned vertices of the simplices containing w, without duplicates and
+    // without the faces contained in another face
+    private static int[][] facesToCheck(List<int[]> simplices, int w, boolean[] assigned) {
+        List<int[]> res = Lists.newArrayList();
+        for (int[] s : simplices) {
+            if (Arrays.binarySearch(s, w) < 0) {
+                continue;
+            }
+            int[] face = Arrays.stream(s).filter(u -> assigned[u]).toArray();
+            if (face.length >= 3) {
+                res.add(face);
+            }
+        }
+        List<int[]> kept = Lists.newArrayList();
+        for (int i = 0; i < res.size(); i++) {
+            boolean implied = false;
+            for (int j = 0; j < res.size() && !implied; j++) {
+                implied = j != i && containsAll(res.get(j), res.get(i))
+                        && (res.get(j).length > res.get(i).length || j < i);
+            }
+            if (!implied) {
+                kept.add(res.get(i));
+            }
+        }
+        return kept.toArray(new int[0][]);
+    }
+
+    private static boolean containsAll(int[] sup, int[] sub) {
+        for (int u : sub) {
+            if (Arrays.binarySearch(sup, u) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getNumVertices() {
+        return k;
+    }
+
+    public int getDegree(int v) {
+        return degrees[v];
+    }
+
+    public int[] getOrder(int root) {
+        return orders[root];
+    }
+
+    public int[] getBackNeighbors(int root, int step) {
+        return backNeighbors[root][step];
+    }
+
+    public int[][] getFaces(int root, int step) {
+        return faces[root][step];
+    }
+
+    // vertices assigned before step whose images must be smaller than the one of the vertex of the step
+    public int[] getSmaller(int root, int step) {
+        return smaller[root][step];
+    }
+
+    // vertices assigned before step whose images must be larger than the one of the vertex of the step
+    public int[] getLarger(int root, int step) {
+        return larger[root][step];
+    }
+
+    // orbit of v under the automorphisms fixing root, null without symmetry breaking:
+    // the matches left out by the conditions map v to the images of the other vertices of its orbit
+    public int[] getRootOrbit(int root, int v) {
+        return rootOrbits[root] == null ? null : rootOrbits[root][v];
+    }
+
+    // NaN if the plan has been built without a cost model
+    public double getEstimatedNodes(int root) {
+        return estimates[root];
+    }
+
+}
@@ -0,0 +1,50 @@
+package fsminer.search;
+
+import java.util.Arrays;
+
+// Scratch state of the backtracking matcher: the partial match as an array
+// indexed by simplet vertex (-1 if the vertex is not assigned yet), one buffer
+// of candidates per search depth, and the buffer for the simplex membership
+// checks. The buffers only grow, so once they fit the largest simplet and the
+// largest neighbourhood the search does not allocate.
+// A state is used by one search at a time; forThread() gives the one of the
+// current thread, shared by all the MatchFinders running on it.
+class MatchState {
+
+    private static final ThreadLocal<MatchState> STATES = ThreadLocal.withInitial(MatchState::new);
+
+    int[] assignment;
+    int[][] candidates;
+    int[] simplex;
+
+    MatchState() {
+        this.assignment = new int[0];
+        this.candidates = new int[0][];
+        this.simplex = new int[0];
+    }
+
+    static MatchState forThread(int numVertices, int maxDegree) {
+        MatchState state = STATES.get();
+        state.ensureCapacity(numVertices, maxDegree);
+        return state;
+    }
+
+    void ensureCapacity(int numVertices, int maxDegree) {
+        if (assignment.length < numVertices) {
+            assignment = new int[numVertices];
+            simplex = new int[numVertices];
+            candidates = Arrays.copyOf(candidates, numVertices);
+        }
+        for (int i = 0; i < candidates.length; i++) {
+            if (candidates[i] == null || candidates[i].length < maxDegree) {
+                candidates[i] = new int[maxDegree];
+            }
+        }
+    }
+
+    // clears the assignment of the first numVertices simplet vertices
+    void reset(int numVertices) {
+        Arrays.fill(assignment, 0, numVertices, -1);
+    }
+
+}
@@ -0,0 +1,548 @@
+package fsminer.search;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Generates a SpecializedMatcher class for a MatchPlan: the steps of each root
+// become nested loops, with the vertices, the intersections, the used-vertex
+// checks, the symmetry-breaking checks and the face checks unrolled as constants,
+// so that the JIT sees one straight method per simplet shape instead of the
+// interpreted recursion.
+//
+// The class files are written by hand (version 49, which does not need stack
+// map frames) and defined by a private class loader. Plans with more than
+// MAX_VERTICES vertices, or with a step that has no assigned neighbour, are not
+// compiled and keep the interpreted search. The generated classes are cached
+// by plan shape, since the same shapes come up over and over.
+public class MatcherCompiler {
+
+    public static final int MAX_VERTICES = 8;
+
+    private static final String COMPLEX = "fsminer/structures/Complex";
+    private static final String BITMAP = "fsminer/structures/VertexBitmap";
+    private static final String MATCHER = "fsminer/search/SpecializedMatcher";
+    private static final String BUDGET = "fsminer/search/Budget";
+    private static final String FIND_DESC = "(IL" + COMPLEX + ";[L" + BITMAP + ";[I[[I[IL" + BUDGET + ";)I";
+
+    // local variables of findMatch
+    private static final int ROOT = 1;
+    private static final int COMPLEX_VAR = 2;
+    private static final int IMAGES = 3;
+    private static final int ASSIGNMENT = 4;
+    private static final int CANDIDATES = 5;
+    private static final int SIMPLEX = 6;
+    private static final int BUDGET_VAR = 7;
+    private static final int FIRST_FREE = 8;
+
+    private static final Map<String, SpecializedMatcher> CACHE = new ConcurrentHashMap<>();
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+    private static final Loader LOADER = new Loader(MatcherCompiler.class.getClassLoader());
+
+    // matcher for the plan, or null if the plan cannot be compiled
+    public static SpecializedMatcher compile(MatchPlan plan) {
+        if (!isCompilable(plan)) {
+            return null;
+        }
+        return CACHE.computeIfAbsent(shape(plan), key -> {
+            String name = "fsminer/search/generated/SimpletMatcher" + NEXT_ID.getAndIncrement();
+            byte[] bytes = new MatcherCompiler(plan, name).generate();
+            try {
+                return (SpecializedMatcher) LOADER.define(name.replace('/', '.'), bytes).getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    private static boolean isCompilable(MatchPlan plan) {
+        int k = plan.getNumVertices();
+        if (k > MAX_VERTICES) {
+            return false;
+        }
+        for (int root = 0; root < k; root++) {
+            if (plan.getOrder(root).length != k) {
+                return false;
+            }
+            for (int step = 1; step < k; step++) {
+                if (plan.getBackNeighbors(root, step).length == 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // everything the generated code depends on
+    private static String shape(MatchPlan plan) {
+        int k = plan.getNumVertices();
+        StringBuilder sb = new StringBuilder().append(k);
+        for (int v = 0; v < k; v++) {
+            sb.append(',').append(plan.getDegree(v));
+        }
+        for (int root = 0; root < k; root++) {
+            sb.append('|').append(Arrays.toString(plan.getOrder(root)));
+            for (int step = 1; step < k; step++) {
+                sb.append(';').append(Arrays.toString(plan.getBackNeighbors(root, step)));
+                for (int[] face : plan.getFaces(root, step)) {
+                    sb.append(Arrays.toString(face));
+                }
+                sb.append('<').append(Arrays.toString(plan.getSmaller(root, step)))
+                        .append('>').append(Arrays.toString(plan.getLarger(root, step)));
+            }
+        }
+        return sb.toString();
+    }
+
+    private final MatchPlan plan;
+    private final String name;
+    private final ConstantPool pool;
+    private final Code code;
+    private final int k;
+
+    private MatcherCompiler(MatchPlan plan, String name) {
+        this.plan = plan;
+        this.name = name;
+        this.pool = new ConstantPool();
+        this.code = new Code();
+        this.k = plan.getNumVertices();
+    }
+
+    // local variables of the loop of a step
+    private int index(int step) {
+        return FIRST_FREE + 4 * (step - 1);
+    }
+
+    private int size(int step) {
+        return index(step) + 1;
+    }
+
+    private int vertex(int step) {
+        return index(step) + 2;
+    }
+
+    private int buffer(int step) {
+        return index(step) + 3;
+    }
+
+    private int first() {
+        return FIRST_FREE + 4 * k;
+    }
+
+    private int other() {
+        return first() + 1;
+    }
+
+    private byte[] generate() {
+        // findMatch: one block per root
+        for (int root = 0; root < k; root++) {
+            Label nextRoot = new Label();
+            code.load(Code.ILOAD, ROOT);
+            code.push(root);
+            code.jump(Code.IF_ICMPNE, nextRoot);
+            step(root, 1);
+            code.push(MatchFinder.NOT_FOUND);
+            code.op(Code.IRETURN);
+            code.mark(nextRoot);
+        }
+        code.push(MatchFinder.NOT_FOUND);
+        code.op(Code.IRETURN);
+        byte[] find = code.toBytes();
+
+        Code init = new Code();
+        init.load(Code.ALOAD, 0);
+        init.invoke(Code.INVOKESPECIAL, pool.method("java/lang/Object", "<init>", "()V"));
+        init.op(Code.RETURN);
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            int thisClass = pool.classRef(name);
+            int superClass = pool.classRef("java/lang/Object");
+            int matcher = pool.classRef(MATCHER);
+            int initName = pool.utf8("<init>");
+            int initDesc = pool.utf8("()V");
+            int findName = pool.utf8("findMatch");
+            int findDesc = pool.utf8(FIND_DESC);
+            int codeName = pool.utf8("Code");
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            pool.write(out);
+            out.writeShort(0x0001 | 0x0010 | 0x0020); // public final super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(matcher);
+            out.writeShort(0); // fields
+            out.writeShort(2); // methods
+            writeMethod(out, initName, initDesc, codeName, init.toBytes(), 1, 1);
+            writeMethod(out, findName, findDesc, codeName, find, 12, first() + 2);
+            out.writeShort(0); // attributes
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeMethod(DataOutputStream out, int nameIndex, int descIndex, int codeName,
+            byte[] code, int maxStack, int maxLocals) throws IOException {
+        out.writeShort(0x0001); // public
+        out.writeShort(nameIndex);
+        out.writeShort(descIndex);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0); // exception table
+        out.writeShort(0); // attributes
+    }
+
+    // code of a step of the plan of root: checks the budget, then loops over the
+    // candidates of the vertex of the step, nesting the code of the next step;
+    // falls through when no match has been found
+    private void step(int root, int step) {
+        emitTimeoutCheck();
+        if (step == k) {
+            code.push(MatchFinder.FOUND);
+            code.op(Code.IRETURN);
+            return;
+        }
+        int w = plan.getOrder(root)[step];
+        int[] back = plan.getBackNeighbors(root, step);
+        // candidates: start from the assigned neighbour with the smallest degree
+        code.load(Code.ALOAD, CANDIDATES);
+        code.push(step);
+        code.op(Code.AALOAD);
+        code.store(Code.ASTORE, buffer(step));
+        emitAssigned(back[0]);
+        code.store(Code.ISTORE, first());
+        for (int j = 1; j < back.length; j++) {
+            Label keep = new Label();
+            code.load(Code.ALOAD, COMPLEX_VAR);
+            emitAssigned(back[j]);
+            code.invoke(Code.INVOKEVIRTUAL, pool.method(COMPLEX, "getDegree", "(I)I"));
+            code.load(Code.ALOAD, COMPLEX_VAR);
+            code.load(Code.ILOAD, first());
+            code.invoke(Code.INVOKEVIRTUAL, pool.method(COMPLEX, "getDegree", "(I)I"));
+            code.jump(Code.IF_ICMPGE, keep);
+            emitAssigned(back[j]);
+            code.store(Code.ISTORE, first());
+            code.mark(keep);
+        }
+        code.load(Code.ALOAD, COMPLEX_VAR);
+        code.load(Code.ILOAD, first());
+        code.load(Code.ALOAD, buffer(step));
+        code.invoke(Code.INVOKEVIRTUAL, pool.method(COMPLEX, "copyNeighborsOf", "(I[I)I"));
+        code.store(Code.ISTORE, size(step));
+        if (back.length > 1) {
+            for (int b : back) {
+                Label skip = new Label();
+                emitAssigned(b);
+                code.store(Code.ISTORE, other());
+                code.load(Code.ILOAD, other());
+                code.load(Code.ILOAD, first());
+                code.jump(Code.IF_ICMPEQ, skip);
+                code.load(Code.ALOAD, COMPLEX_VAR);
+                code.load(Code.ILOAD, other());
+                code.load(Code.ALOAD, buffer(step));
+                code.load(Code.ILOAD, size(step));
+                code.invoke(Code.INVOKEVIRTUAL, pool.method(COMPLEX, "retainNeighborsOf", "(I[II)I"));
+                code.store(Code.ISTORE, size(step));
+                code.mark(skip);
+            }
+        }
+        // loop over the candidates
+        Label loop = new Label();
+        Label failed = new Label();
+        Label next = new Label();
+        Label end = new Label();
+        code.push(0);
+        code.store(Code.ISTORE, index(step));
+        code.mark(loop);
+        code.load(Code.ILOAD, index(step));
+        code.load(Code.ILOAD, size(step));
+        code.jump(Code.IF_ICMPGE, end);
+        code.load(Code.ALOAD, buffer(step));
+        code.load(Code.ILOAD, index(step));
+        code.op(Code.IALOAD);
+        code.store(Code.ISTORE, vertex(step));
+        // upper bound to the image of w
+        Label noImages = new Label();
+        code.load(Code.ALOAD, IMAGES);
+        code.jump(Code.IFNULL, noImages);
+        code.load(Code.ALOAD, IMAGES);
+        code.push(w);
+        code.op(Code.AALOAD);
+        code.load(Code.ILOAD, vertex(step));
+        code.invoke(Code.INVOKEVIRTUAL, pool.method(BITMAP, "contains", "(I)Z"));
+        code.jump(Code.IFEQ, next);
+        code.mark(noImages);
+        // degree
+        code.load(Code.ALOAD, COMPLEX_VAR);
+        code.load(Code.ILOAD, vertex(step));
+        code.invoke(Code.INVOKEVIRTUAL, pool.method(COMPLEX, "getDegree", "(I)I"));
+        code.push(plan.getDegree(w));
+        code.jump(Code.IF_ICMPLT, failed);
+        // not used by the vertices of the previous steps
+        for (int prev = 0; prev < step; prev++) {
+            code.load(Code.ILOAD, vertex(step));
+            emitAssigned(plan.getOrder(root)[prev]);
+            code.jump(Code.IF_ICMPEQ, failed);
+        }
+        // symmetry breaking
+        for (int u : plan.getSmaller(root, step)) {
+            code.load(Code.ILOAD, vertex(step));
+            emitAssigned(u);
+            code.jump(Code.IF_ICMPLE, failed);
+        }
+        for (int u : plan.getLarger(root, step)) {
+            code.load(Code.ILOAD, vertex(step));
+            emitAssigned(u);
+            code.jump(Code.IF_ICMPGE, failed);
+        }
+        // faces
+        for (int[] face : plan.getFaces(root, step)) {
+            code.load(Code.ALOAD, SIMPLEX);
+            code.push(0);
+            code.load(Code.ILOAD, vertex(step));
+            code.op(Code.IASTORE);
+            int pos = 1;
+            for (int u : face) {
+                if (u != w) {
+                    code.load(Code.ALOAD, SIMPLEX);
+                    code.push(pos++);
+                    emitAssigned(u);
+                    code.op(Code.IASTORE);
+                }
+            }
+            code.load(Code.ALOAD, COMPLEX_VAR);
+            code.load(Code.ALOAD, SIMPLEX);
+            code.push(pos);
+            code.invoke(Code.INVOKEVIRTUAL, pool.method(COMPLEX, "contains", "([II)Z"));
+            code.jump(Code.IFEQ, failed);
+        }
+        // assign, go on with the next step, and unassign if it did not return
+        code.load(Code.ALOAD, ASSIGNMENT);
+        code.push(w);
+        code.load(Code.ILOAD, vertex(step));
+        code.op(Code.IASTORE);
+        step(root, step + 1);
+        code.load(Code.ALOAD, ASSIGNMENT);
+        code.push(w);
+        code.push(-1);
+        code.op(Code.IASTORE);
+        code.jump(Code.GOTO, next);
+        code.mark(failed);
+        emitTimeoutCheck();
+        code.mark(next);
+        code.iinc(index(step), 1);
+        code.jump(Code.GOTO, loop);
+        code.mark(end);
+    }
+
+    // pushes assignment[u]
+    private void emitAssigned(int u) {
+        code.load(Code.ALOAD, ASSIGNMENT);
+        code.push(u);
+        code.op(Code.IALOAD);
+    }
+
+    // if (budget.expired()) return TIMED_OUT
+    private void emitTimeoutCheck() {
+        Label inTime = new Label();
+        code.load(Code.ALOAD, BUDGET_VAR);
+        code.invoke(Code.INVOKEVIRTUAL, pool.method(BUDGET, "expired", "()Z"));
+        code.jump(Code.IFEQ, inTime);
+        code.push(MatchFinder.TIMED_OUT);
+        code.op(Code.IRETURN);
+        code.mark(inTime);
+    }
+
+    private static class Loader extends ClassLoader {
+
+        Loader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            synchronized (this) {
+                return defineClass(name, bytes, 0, bytes.length);
+            }
+        }
+    }
+
+    private static class ConstantPool {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> entries = Maps.newHashMap();
+        private int count = 1;
+
+        private int entry(String key, int tag, int... refs) {
+            Integer index = entries.get(key);
+            if (index != null) {
+                return index;
+            }
+            try {
+                out.writeByte(tag);
+                for (int ref : refs) {
+                    out.writeShort(ref);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            entries.put(key, count);
+            return count++;
+        }
+
+        int utf8(String s) {
+            Integer index = entries.get("U" + s);
+            if (index != null) {
+                return index;
+            }
+            try {
+                out.writeByte(1);
+                out.writeUTF(s);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            entries.put("U" + s, count);
+            return count++;
+        }
+
+        int classRef(String name) {
+            int nameIndex = utf8(name);
+            return entry("C" + name, 7, nameIndex);
+        }
+
+        int method(String owner, String name, String desc) {
+            int classIndex = classRef(owner);
+            int nameIndex = utf8(name);
+            int descIndex = utf8(desc);
+            int nat = entry("N" + name + desc, 12, nameIndex, descIndex);
+            return entry("M" + owner + "." + name + desc, 10, classIndex, nat);
+        }
+
+        void write(DataOutputStream dst) throws IOException {
+            dst.writeShort(count);
+            dst.write(bytes.toByteArray());
+        }
+    }
+
+    private static class Label {
+
+        int pos = -1;
+        final List<int[]> uses = Lists.newArrayList(); // (position of the jump, position of its offset)
+    }
+
+    private static class Code {
+
+        static final int ILOAD = 0x15, ALOAD = 0x19;
+        static final int ISTORE = 0x36, ASTORE = 0x3a;
+        static final int IALOAD = 0x2e, AALOAD = 0x32, IASTORE = 0x4f;
+        static final int IFEQ = 0x99;
+        static final int IF_ICMPEQ = 0x9f, IF_ICMPNE = 0xa0, IF_ICMPLT = 0xa1, IF_ICMPGE = 0xa2, IF_ICMPLE = 0xa4;
+        static final int GOTO = 0xa7, IRETURN = 0xac, RETURN = 0xb1;
+        static final int INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7;
+        static final int IFNULL = 0xc6;
+
+        private byte[] code = new byte[256];
+        private int length = 0;
+        private final List<Label> labels = Lists.newArrayList();
+
+        private void put(int b) {
+            if (length == code.length) {
+                code = Arrays.copyOf(code, length * 2);
+            }
+            code[length++] = (byte) b;
+        }
+
+        private void putShort(int s) {
+            put(s >>> 8);
+            put(s);
+        }
+
+        void op(int opcode) {
+            put(opcode);
+        }
+
+        void load(int opcode, int var) {
+            put(opcode);
+            put(var);
+        }
+
+        void store(int opcode, int var) {
+            put(opcode);
+            put(var);
+        }
+
+        void iinc(int var, int delta) {
+            put(0x84);
+            put(var);
+            put(delta);
+        }
+
+        void push(int value) {
+            if (value >= -1 && value <= 5) {
+                put(0x03 + value); // iconst_<value>
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                put(0x10); // bipush
+                put(value);
+            } else {
+                put(0x11); // sipush
+                putShort(value);
+            }
+        }
+
+        void invoke(int opcode, int methodRef) {
+            put(opcode);
+            putShort(methodRef);
+        }
+
+        void jump(int opcode, Label target) {
+            if (!labels.contains(target)) {
+                labels.add(target);
+            }
+            target.uses.add(new int[]{length, length + 1});
+            put(opcode);
+            putShort(0);
+        }
+
+        void mark(Label label) {
+            if (!labels.contains(label)) {
+                labels.add(label);
+            }
+            label.pos = length;
+        }
+
+        byte[] toBytes() {
+            for (Label label : labels) {
+                for (int[] use : label.uses) {
+                    int offset = label.pos - use[0];
+                    if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+                        throw new IllegalStateException("Jump too long in generated matcher");
+                    }
+                    code[use[1]] = (byte) (offset >>> 8);
+                    code[use[1] + 1] = (byte) offset;
+                }
+            }
+            if (length > 65535) {
+                throw new IllegalStateException("Generated matcher too large");
+            }
+            return Arrays.copyOf(code, length);
+        }
+    }
+
+}
@@ -7,6 +7,7 @@ import com.google.common.collect.Sets;
 import fsminer.structures.Complex;
 import fsminer.structures.Simplet;
 import fsminer.structures.Simplex;
+import fsminer.structures.VertexBitmap;
 import fsminer.utils.Pair;
 import fsminer.utils.Settings;
 import fsminer.utils.StopWatch;
@@ -15,31 +16,96 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
+// The lattice of simplets is explored by ExtendTasks on a dedicated fork-join
+// pool: each frequent extension is a subtask, so that the subtrees are explored
+// concurrently and the idle threads steal the pending ones. The state shared by
+// the tasks (ids, examined simplets, occurrence map) is thread-safe.
+// The examination of each simplet runs within a budget nested in the budget of
+// the run: once the latter expires, no simplet is extended any further and the
+// patterns found so far are returned, those with incomplete supports flagged.
 public class Miner {
 
-    private int incrId; // simplets generated
-    private HashBasedTable<String, String, Set<Simplet>> examined; // simplets examined
+    private AtomicInteger incrId; // simplets generated
+    private HashBasedTable<String, String, Set<Simplet>> examined; // simplets examined, guarded by itself
     private List<Pair<String, Integer>> occMap;
+    private CostModel cost; // statistics of the complex, if the plans need them
+    private List<String> planStats; // estimated and actual size of the searches of each simplet
+    private Budget runBudget;
+    private NegativeCache failureCache; // failures of the min-based search, null if disabled
+    private AtomicInteger incompleteSimplets; // simplets whose examination ran out of budget
+    private final int threads; // of the fork-join pool exploring the lattice
 
     public Miner() {
-        this.incrId = 0;
+        this(Settings.minerThreads);
+    }
+
+    public Miner(int threads) {
+        this.threads = threads;
+        this.incrId = new AtomicInteger();
         this.examined = HashBasedTable.create();
-        this.occMap = Lists.newArrayList();
+        this.occMap = Collections.synchronizedList(Lists.newArrayList());
+        this.planStats = Collections.synchronizedList(Lists.newArrayList());
+        this.incompleteSimplets = new AtomicInteger();
     }
 
-    public List mine(Complex complex, int minFreq, int minSize, int maxSize, boolean limited, long timeout) {
+    public List<Simplet> mine(Complex complex, int minFreq, int minSize, int maxSize, boolean limited, long timeout) {
+        if (Settings.matchOrder.equalsIgnoreCase("cost") || Settings.planStats) {
+            cost = new CostModel(complex);
+        }
         // create 0-simplex
-        Simplet simplet = new Simplet(incrId);
+        Simplet simplet = new Simplet(incrId.getAndIncrement());
         simplet.add0Simplex(0, -1);
-        incrId++;
-        Map<Integer, Set<Integer>> images = Maps.newHashMap();
+        Map<Integer, VertexBitmap> images = Maps.newHashMap();
         images.put(0, complex.getVertices());
         simplet.setImages(images);
+        if (!Settings.allMatches && Settings.failureCacheMB > 0) {
+            failureCache = new NegativeCache(Settings.failureCacheMB << 20);
+        }
         // start extension
-        List FS = extend(complex, simplet, minFreq, minSize, maxSize, limited, timeout);
-        return FS;
+        runBudget = Budget.start(Settings.runBudget);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            return pool.invoke(new ExtendTask(complex, simplet, minFreq, minSize, maxSize, limited, timeout));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // examines the extensions of a simplet, and forks a subtask for each frequent one;
+    // the subtasks are forked last to first and joined first to last, so that with
+    // a single thread the lattice is explored depth-first in the order of the extensions
+    private class ExtendTask extends RecursiveTask<List<Simplet>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Complex complex;
+        private final Simplet simplet;
+        private final int minFreq;
+        private final int minSize;
+        private final int maxSize;
+        private final boolean limited;
+        private final long timeout;
+
+        ExtendTask(Complex complex, Simplet simplet,
+                int minFreq, int minSize, int maxSize, boolean limited, long timeout) {
+            this.complex = complex;
+            this.simplet = simplet;
+            this.minFreq = minFreq;
+            this.minSize = minSize;
+            this.maxSize = maxSize;
+            this.limited = limited;
+            this.timeout = timeout;
+        }
+
+        @Override
+        protected List<Simplet> compute() {
+            return extend(complex, simplet, minFreq, minSize, maxSize, limited, timeout);
+        }
     }
 
     private List<Simplet> extend(Complex complex, Simplet simplet,
@@ -47,21 +113,26 @@ public class Miner {
         StopWatch watch = new StopWatch();
         watch.start();
         List<Simplet> extensions = Lists.newArrayList();
-        List frequents = Lists.newArrayList();
+        List<Simplet> frequents = Lists.newArrayList();
+        if (runBudget.check()) {
+            return frequents;
+        }
         int u = simplet.getNumVertices();
         // extend only if the number of vertices in the simplet is below the max size threshold
         if (u < maxSize) {
             // add 1-simplex in each possible position
             for (int v = 0; v < u; v++) {
-                Simplet ext = new Simplet(incrId, simplet, Settings.allMatches);
+                Simplet ext = new Simplet(incrId.get(), simplet, Settings.allMatches);
                 Simplex simplex = new Simplex(ext.getIncrId(), Sets.newHashSet(u, v), true);
                 ext.add1Simplex(u, v, simplex);
                 if (!hasBeenExamined(ext)) {
+                    ext.setId(incrId.getAndIncrement());
+                    // the upper bounds to the image sets of the exact search are incomplete as well
+                    ext.setIncomplete(Settings.allMatches && simplet.isIncomplete());
                     ext.addUBImage(u, complex.getCandVertices());
                     ext.updateCofaceMap(simplex);
                     // not examined, so it can be added to the extension set
                     extensions.add(ext);
-                    incrId++;
                 }
             }
         }
@@ -71,56 +142,112 @@ public class Miner {
                 .forEach(entry -> {
                     List<Pair<Set<Integer>, Set<Integer>>> joists = simplet.validateJoists(entry.getValue(), entry.getKey());
                     for (Pair<Set<Integer>, Set<Integer>> joist : joists) {
-                        Simplet ext = new Simplet(incrId, simplet, Settings.allMatches);
+                        Simplet ext = new Simplet(incrId.get(), simplet, Settings.allMatches);
                         Simplex simplex = new Simplex(ext.getIncrId(), joist.getA(), true);
                         ext.addkSimplex(simplex);
                         if (!hasBeenExamined(ext)) {
+                            ext.setId(incrId.getAndIncrement());
+                            ext.setIncomplete(Settings.allMatches && simplet.isIncomplete());
                             ext.updateCofaceMap(simplex);
                             ext.updateSimplexNeighbours(joist.getB(), entry.getKey());
                             // not examined, so it can be added to the extension set
                             extensions.add(ext);
-                            incrId++;
                         }
                     }
                 });
         
-        extensions.parallelStream().forEach(ext -> {
-            MatchFinder matcher = new MatchFinder(complex, ext, minFreq);
+        // few extensions cannot keep the pool busy: examine them one at a time,
+        // splitting the candidates of each one among the workers instead
+        int parallelism = ForkJoinTask.getPool().getParallelism();
+        boolean intraSimplet = Settings.simpletParallelism.equalsIgnoreCase("intra")
+                || (Settings.simpletParallelism.equalsIgnoreCase("auto")
+                && parallelism > 1 && extensions.size() < parallelism);
+        (intraSimplet ? extensions.stream() : extensions.parallelStream()).forEach(ext -> {
+            MatchFinder matcher = new MatchFinder(complex, ext, minFreq, cost, intraSimplet);
+            Budget budget = runBudget.child(Settings.simpletBudget);
             if (Settings.allMatches) {
-                matcher.examine();
+                matcher.examine(simplet, budget);
             } else {
-                matcher.examineSingle(simplet.getImages(), simplet.getNonCands(), timeout);
+                matcher.examineSingle(simplet, failureCache, timeout, budget);
             }
             ext.computeFrequency(Settings.supportMeasure);
+            if (ext.isIncomplete()) {
+                incompleteSimplets.incrementAndGet();
+            }
+            if (Settings.planStats) {
+                planStats.add(ext.toString() + "\t" + matcher.getSearches()
+                        + "\t" + String.format("%.1f", matcher.getEstimatedNodes())
+                        + "\t" + matcher.getVisitedNodes());
+            }
         });
+        // the embeddings and the domains of the simplet only serve the examination of its extensions
+        simplet.setWitnesses(new int[0]);
+        simplet.setDomains(null);
+        // and so do its image sets, whose support has been computed: with limited, they are
+        // released now rather than once the subtree of the simplet has been explored, so
+        // that only those of the extensions still to be extended are kept
+        if (limited) {
+            simplet.emptyImageMap();
+            simplet.setNonCands(Collections.EMPTY_MAP);
+        }
+        List<Simplet> frequentExts = Lists.newArrayList();
+        // simplets whose partial support is below the threshold, which may still be frequent
+        List<Simplet> partialExts = Lists.newArrayList();
         extensions.stream().forEach(ext -> {
             if (ext.getFreq() >= minFreq) {
-                if (Settings.storeOccMap) {
-                    Set<Integer> vp = ext.getImages().values().stream().flatMap(v -> v.stream()).collect(Collectors.toSet());
-                    for (int v : vp) {
-                        occMap.add(new Pair<String, Integer>(ext.toString(), v));
-                    }
+                // the images of a simplet whose support is estimated are only some of them
+                if (Settings.storeOccMap && !ext.isEstimated()) {
+                    VertexBitmap vp = new VertexBitmap();
+                    ext.getImages().values().forEach(image -> vp.or(image));
+                    List<Pair<String, Integer>> occs = Lists.newArrayList();
+                    vp.forEach(v -> occs.add(new Pair<String, Integer>(ext.toString(), v)));
+                    occMap.addAll(occs);
                 }
-                // the simplet is added to the output only if the dimension > min dimension threshold
-                if (ext.getDimension() >= minSize) {
-                    if (limited) {
-                        frequents.add(ext.toString());
-                    } else {
-                        frequents.add(ext);
-                    }
-                }
-                // the simplet is frequent, and so we extend it
-                frequents.addAll(extend(complex, ext, minFreq, minSize, maxSize, limited, timeout));
+                frequentExts.add(ext);
+                return;
+            }
+            if (ext.isIncomplete()) {
+                partialExts.add(ext);
+            }
+            // the simplet is not extended, so no search needs its image sets
+            if (limited) {
+                ext.emptyImageMap();
+                ext.setNonCands(Collections.emptyMap());
             }
         });
-        if (limited) {
-            simplet.emptyImageMap();
-            simplet.setNonCands(Collections.EMPTY_MAP);
+        // the simplets are frequent, and so we extend them
+        List<ExtendTask> subtasks = Lists.newArrayList();
+        for (Simplet ext : frequentExts) {
+            subtasks.add(new ExtendTask(complex, ext, minFreq, minSize, maxSize, limited, timeout));
+        }
+        for (int i = subtasks.size() - 1; i >= 0; i--) {
+            subtasks.get(i).fork();
+        }
+        for (int i = 0; i < frequentExts.size(); i++) {
+            Simplet ext = frequentExts.get(i);
+            // the simplet is added to the output only if the dimension > min dimension threshold
+            if (ext.getDimension() >= minSize) {
+                frequents.add(ext);
+            }
+            frequents.addAll(subtasks.get(i).join());
+        }
+        // they are reported, but not extended, since their image sets are not reliable
+        for (Simplet ext : partialExts) {
+            if (ext.getDimension() >= minSize) {
+                frequents.add(ext);
+            }
         }
         return frequents;
     }
 
+    // atomically checks whether a simplet isomorphic to s has been examined, and records s otherwise
     private boolean hasBeenExamined(Simplet s) {
+        synchronized (examined) {
+            return hasBeenExaminedLocked(s);
+        }
+    }
+
+    private boolean hasBeenExaminedLocked(Simplet s) {
         Pair<int[], int[]> p = s.computeFingerPrint();
         String hashCodeA = Arrays.toString(p.getA());
         String hashCodeB = Arrays.toString(p.getB());
@@ -138,6 +265,10 @@ public class Miner {
         } else {
             examined.put(hashCodeB, hashCodeA, Sets.newHashSet());
         }
+        // the canonical forms are computed lazily: compute them before s is visible to the
+        // other tasks, which compare against them while s is being examined
+        s.getGraphProj();
+        s.getCanonicalForm();
         Set<Simplet> tmp = examined.get(hashCodeB, hashCodeA);
         tmp.add(s);
         examined.put(hashCodeB, hashCodeA, tmp);
@@ -147,4 +278,16 @@ public class Miner {
     public List<Pair<String, Integer>> getOccMap() {
         return occMap;
     }
+
+    public List<String> getPlanStats() {
+        return planStats;
+    }
+
+    public int getIncompleteSimplets() {
+        return incompleteSimplets.get();
+    }
+
+    public boolean isBudgetExpired() {
+        return runBudget.check();
+    }
 }
@@ -0,0 +1,127 @@
+package fsminer.search;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import fi.tkk.ics.jbliss.pattern.JBlissPattern;
+import fsminer.structures.Simplet;
+import fsminer.structures.Simplex;
+import fsminer.structures.VertexBitmap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Failures of the min-based search shared by all the simplets of a run: the complex
+// vertices that cannot be the image of a vertex of a pattern, keyed by the canonical
+// form of the pattern and by the orbit of the vertex. A failure of a pattern holds
+// in every simplet containing it, so the examination of a simplet starts from the
+// failures of its sub-patterns with one simplex less (a maximal simplex replaced by
+// its facets), wherever they have been found: in its parent, but also in the
+// siblings of the parent and in their descendants.
+// The entries are evicted least recently used first once their approximate size
+// exceeds the cap. Thread-safe.
+public class NegativeCache {
+
+    // approximate size of an entry besides its key and its vertices
+    private static final int ENTRY_BYTES = 64;
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, VertexBitmap> failures; // in access order, guarded by itself
+    private long bytes;
+
+    public NegativeCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.failures = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    // records the failures found for the vertices of the simplet
+    public void addFailures(Simplet simplet, Map<Integer, VertexBitmap> nonCands) {
+        JBlissPattern pattern = simplet.getCanonicalForm();
+        String prefix = pattern.toCanonicalString();
+        for (Map.Entry<Integer, VertexBitmap> e : nonCands.entrySet()) {
+            if (!e.getValue().isEmpty()) {
+                add(prefix + "#" + pattern.getCanonicalOrbitOf(e.getKey()), e.getValue());
+            }
+        }
+    }
+
+    // adds to the non-candidates of each vertex of the simplet the failures recorded
+    // for the vertex in its sub-patterns
+    public void retrieveFailures(Simplet simplet, Map<Integer, VertexBitmap> nonCands) {
+        for (JBlissPattern pattern : subPatterns(simplet)) {
+            String prefix = pattern.toCanonicalString();
+            for (int v : simplet.getVertices()) {
+                int orbit = pattern.getCanonicalOrbitOf(v);
+                if (orbit >= 0) {
+                    retrieve(prefix + "#" + orbit, nonCands.computeIfAbsent(v, x -> new VertexBitmap()));
+                }
+            }
+        }
+    }
+
+    private void add(String key, VertexBitmap vertices) {
+        synchronized (failures) {
+            VertexBitmap entry = failures.get(key);
+            if (entry == null) {
+                entry = vertices.copy();
+                failures.put(key, entry);
+            } else {
+                bytes -= sizeOf(key, entry);
+                entry.or(vertices);
+            }
+            bytes += sizeOf(key, entry);
+            Iterator<Map.Entry<String, VertexBitmap>> it = failures.entrySet().iterator();
+            while (bytes > maxBytes && it.hasNext()) {
+                Map.Entry<String, VertexBitmap> eldest = it.next();
+                bytes -= sizeOf(eldest.getKey(), eldest.getValue());
+                it.remove();
+            }
+        }
+    }
+
+    private void retrieve(String key, VertexBitmap dst) {
+        synchronized (failures) {
+            VertexBitmap entry = failures.get(key);
+            if (entry != null) {
+                dst.or(entry);
+            }
+        }
+    }
+
+    private static long sizeOf(String key, VertexBitmap vertices) {
+        return ENTRY_BYTES + 2L * key.length() + 4L * vertices.cardinality();
+    }
+
+    // canonical forms of the sub-patterns obtained by replacing a maximal simplex of
+    // the simplet with its facets not contained in the other maximal simplices; a
+    // vertex left in no simplex is dropped with its edge
+    private static List<JBlissPattern> subPatterns(Simplet simplet) {
+        List<Simplex> maximal = Lists.newArrayList(simplet.getAllHDSimplices());
+        List<JBlissPattern> patterns = Lists.newArrayList();
+        for (Simplex removed : maximal) {
+            List<Simplex> simplices = Lists.newArrayList();
+            for (Simplex s : maximal) {
+                if (s != removed) {
+                    simplices.add(new Simplex(simplices.size() + 1, s.getVertices(), true));
+                }
+            }
+            if (removed.getNumVertices() > 2) {
+                for (int v : removed.getVertices()) {
+                    Set<Integer> facet = Sets.newHashSet(removed.getVertices());
+                    facet.remove(v);
+                    if (maximal.stream().noneMatch(s -> s != removed && s.containsAll(facet))) {
+                        simplices.add(new Simplex(simplices.size() + 1, facet, true));
+                    }
+                }
+            }
+            if (!simplices.isEmpty()) {
+                JBlissPattern p = new JBlissPattern(simplices, true);
+                p.turnCanonical();
+                patterns.add(p);
+            }
+        }
+        return patterns;
+    }
+
+}
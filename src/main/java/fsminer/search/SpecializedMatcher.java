@@ -0,0 +1,17 @@
+package fsminer.search;
+
+import fsminer.structures.Complex;
+import fsminer.structures.VertexBitmap;
+
+// Matcher generated at runtime for the plan of a simplet (see MatcherCompiler).
+// It extends the match in assignment, where only the root is assigned, in the
+// same order and with the same checks as the interpreted MatchFinder search.
+// images are the upper bounds to the image sets, or null; budget is polled at every step.
+// Returns MatchFinder.FOUND (the match is left in assignment), NOT_FOUND or TIMED_OUT.
+// Public since the generated classes live in their own class loader.
+public interface SpecializedMatcher {
+
+    int findMatch(int root, Complex complex, VertexBitmap[] images,
+            int[] assignment, int[][] candidates, int[] simplex, Budget budget);
+
+}
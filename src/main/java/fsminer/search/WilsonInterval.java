@@ -0,0 +1,45 @@
+package fsminer.search;
+
+// Wilson score interval of a proportion estimated from a sample, used by the
+// approximate support: the fraction of the candidates of a simplet vertex that
+// are images of it. Unlike the normal approximation, the interval stays within
+// [0, 1] and does not collapse when the sample has no success, or no failure.
+final class WilsonInterval {
+
+    private WilsonInterval() {
+    }
+
+    // critical value for intervals holding together with the given confidence:
+    // each of them gets an error of (1 - confidence) / intervals (Bonferroni)
+    static double z(double confidence, int intervals) {
+        double tail = (1 - confidence) / (2.0 * Math.max(1, intervals));
+        return upperQuantile(Math.min(0.5, Math.max(1e-12, tail)));
+    }
+
+    static double lower(int successes, int trials, double z) {
+        return trials == 0 ? 0 : Math.max(0, center(successes, trials, z) - halfWidth(successes, trials, z));
+    }
+
+    static double upper(int successes, int trials, double z) {
+        return trials == 0 ? 1 : Math.min(1, center(successes, trials, z) + halfWidth(successes, trials, z));
+    }
+
+    private static double center(int successes, int trials, double z) {
+        double p = (double) successes / trials;
+        return (p + z * z / (2.0 * trials)) / (1 + z * z / trials);
+    }
+
+    private static double halfWidth(int successes, int trials, double z) {
+        double p = (double) successes / trials;
+        return z / (1 + z * z / trials) * Math.sqrt(p * (1 - p) / trials + z * z / (4.0 * trials * trials));
+    }
+
+    // z such that a standard normal exceeds it with probability p <= 0.5
+    // (Abramowitz and Stegun 26.2.23, absolute error below 4.5e-4)
+    private static double upperQuantile(double p) {
+        double t = Math.sqrt(-2 * Math.log(p));
+        return t - (2.515517 + 0.802853 * t + 0.010328 * t * t)
+                / (1 + 1.432788 * t + 0.189269 * t * t + 0.001308 * t * t * t);
+    }
+
+}
@@ -1,80 +1,475 @@
 package fsminer.structures;
 
-import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
+import fsminer.utils.Settings;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 public class Complex {
-    
-    private Set<Integer> vertices;
-    private Set<Simplex> simplices;
-    private Map<Integer, Set<Integer>> vertexMap;
-    private Map<Integer, Set<Integer>> neighbours;
-    
+
+    // the faces of the simplices with more than FACE_BUDGET faces are not indexed;
+    // those simplices are reached through bigPostings
+    private static final int FACE_BUDGET = 1024;
+    // the neighbourhoods of the vertices with at least DENSE_DEGREE neighbours, and
+    // at least 1/DENSE_FRACTION of the vertices, are also kept as bitmaps: a row is
+    // then at most twice the size of the sorted one
+    private static final int DENSE_DEGREE = 256;
+    private static final int DENSE_FRACTION = 64;
+
+    private VertexBitmap vertices;
+    // sorted vertices of the i-th simplex: simplexVertices[simplexOffsets[i]..simplexOffsets[i+1])
+    private int[] simplexOffsets;
+    private int[] simplexVertices;
+    // positions of the simplices containing vertexIds[i]: postings[postingOffsets[i]..postingOffsets[i+1]);
+    // bigPostings only lists the simplices too large to have their faces in the face index
+    private int[] postingOffsets;
+    private int[] postings;
+    private int[] bigPostingOffsets;
+    private int[] bigPostings;
+    private FaceIndex faceIndex;
+    // compressed-sparse-row adjacency: the neighbours of vertexIds[i] are
+    // the sorted entries adjacency[offsets[i]..offsets[i+1])
+    private int[] vertexIds;
+    private int[] offsets;
+    private int[] adjacency;
+    private long[][] denseRows; // position in the CSR arrays -> bitmap of the neighbours, or null
+    private boolean dense; // true if vertexIds[i] == i
+    private int[] originalIds; // vertex ID -> ID in the input file (null if not remapped)
+    private int maxDegree;
+    private VertexBitmap candVertices; // vertices with at least one neighbour
+    private VertexBitmap[] verticesInSimplices; // k -> vertices in a simplex with k or more vertices, for k <= maxSize
+
     public Complex(List<Simplex> simplices) {
-        this.vertices = Sets.newHashSet();
-        this.simplices = Sets.newHashSet();
-        this.vertexMap = Maps.newHashMap();
-        this.neighbours = Maps.newHashMap();
-        initialize(simplices);
-    }
-    
-    private void initialize(List<Simplex> simplices) {
-        simplices.stream().forEach(simplex -> {
-            this.vertices.addAll(simplex.getVertices());
-            this.simplices.add(simplex);
-            for (int v : simplex.getVertices()) {
-                Set<Integer> memb = this.vertexMap.getOrDefault(v, Sets.newHashSet());
-                memb.add(simplex.getId());
-                this.vertexMap.put(v, memb);
-            }
-            if (simplex.getNumVertices() > 1) {
-                simplex.getVertices().stream().forEach(v -> {
-                    Set<Integer> tmp2 = neighbours.getOrDefault(v, Sets.newHashSet());
-                    tmp2.addAll(simplex.getVertices());
-                    tmp2.remove(v);
-                    neighbours.put(v, tmp2);
-                });
-            }
-        });
-    }
-    
-    public Set<Integer> getNeighborsOf(int v) {
-        return neighbours.getOrDefault(v, Sets.newHashSet());
-    }
-    
-    public Set<Integer> getVertices() {
-        return vertices;
-    }
-    
-    public Set<Integer> getCandVertices() {
-        return neighbours.keySet();
-    }
-    
+        this(simplices, null);
+    }
+
+    public Complex(List<Simplex> simplices, int[] originalIds) {
+        this(toTuples(simplices), originalIds);
+    }
+
+    // simplices as vertex tuples; the tuples are sorted in place
+    public Complex(int[][] simplices, int[] originalIds) {
+        this.originalIds = originalIds;
+        initialize(SimplexNormalizer.normalize(simplices, Settings.maximalOnly));
+        buildAdjacency();
+        buildDenseRows();
+        buildFaceIndex(Settings.maxSize);
+        initializeVertexSets();
+    }
+
+    // restores a complex from its index arrays (see ComplexSnapshot)
+    Complex(int numVertices, int[] originalIds, int[] simplexOffsets, int[] simplexVertices,
+            int[] offsets, int[] adjacency,
+            int[] postingOffsets, int[] postings, int[] bigPostingOffsets, int[] bigPostings,
+            FaceIndex faceIndex) {
+        this.vertexIds = new int[numVertices];
+        for (int i = 0; i < numVertices; i++) {
+            vertexIds[i] = i;
+        }
+        this.dense = true;
+        this.originalIds = originalIds;
+        this.simplexOffsets = simplexOffsets;
+        this.simplexVertices = simplexVertices;
+        this.offsets = offsets;
+        this.adjacency = adjacency;
+        this.postingOffsets = postingOffsets;
+        this.postings = postings;
+        this.bigPostingOffsets = bigPostingOffsets;
+        this.bigPostings = bigPostings;
+        this.faceIndex = faceIndex;
+        buildDenseRows();
+        initializeVertexSets();
+    }
+
+    private static int[][] toTuples(List<Simplex> simplices) {
+        int[][] tuples = new int[simplices.size()][];
+        for (int i = 0; i < tuples.length; i++) {
+            tuples[i] = simplices.get(i).getVertices().stream().mapToInt(v -> v).toArray();
+        }
+        return tuples;
+    }
+
+    private void initialize(int[][] simplices) {
+        this.simplexOffsets = new int[simplices.length + 1];
+        for (int i = 0; i < simplices.length; i++) {
+            simplexOffsets[i + 1] = simplexOffsets[i] + simplices[i].length;
+        }
+        this.simplexVertices = new int[simplexOffsets[simplices.length]];
+        for (int i = 0; i < simplices.length; i++) {
+            System.arraycopy(simplices[i], 0, simplexVertices, simplexOffsets[i], simplices[i].length);
+        }
+        this.vertexIds = Arrays.stream(simplexVertices).distinct().sorted().toArray();
+        int n = vertexIds.length;
+        this.dense = n == 0 || (vertexIds[0] == 0 && vertexIds[n - 1] == n - 1);
+    }
+
+    private void initializeVertexSets() {
+        int n = vertexIds.length;
+        this.vertices = dense ? VertexBitmap.range(0, n) : VertexBitmap.of(vertexIds);
+        this.candVertices = new VertexBitmap();
+        this.maxDegree = 0;
+        for (int i = 0; i < n; i++) {
+            if (offsets[i + 1] > offsets[i]) {
+                candVertices.add(vertexIds[i]);
+                maxDegree = Math.max(maxDegree, offsets[i + 1] - offsets[i]);
+            }
+        }
+        // size of the largest simplex containing each vertex
+        int[] largest = new int[n];
+        for (int s = 0; s < simplexOffsets.length - 1; s++) {
+            int k = simplexOffsets[s + 1] - simplexOffsets[s];
+            for (int j = simplexOffsets[s]; j < simplexOffsets[s + 1]; j++) {
+                int i = indexOf(simplexVertices[j]);
+                largest[i] = Math.max(largest[i], k);
+            }
+        }
+        int maxSize = Math.max(1, Settings.maxSize);
+        this.verticesInSimplices = new VertexBitmap[maxSize + 1];
+        for (int k = 1; k <= maxSize; k++) {
+            verticesInSimplices[k] = new VertexBitmap();
+        }
+        for (int i = 0; i < n; i++) {
+            for (int k = 1; k <= Math.min(largest[i], maxSize); k++) {
+                verticesInSimplices[k].add(vertexIds[i]);
+            }
+        }
+        // the vertex sets are only handed out as copies
+        vertices.freeze();
+        candVertices.runOptimize().freeze();
+        for (int k = 1; k <= maxSize; k++) {
+            verticesInSimplices[k].runOptimize().freeze();
+        }
+    }
+
+    private void buildFaceIndex(int maxSize) {
+        int n = vertexIds.length;
+        int numSimplices = simplexOffsets.length - 1;
+        this.faceIndex = new FaceIndex(maxSize);
+        boolean[] big = new boolean[numSimplices];
+        for (int i = 0; i < numSimplices; i++) {
+            int k = simplexOffsets[i + 1] - simplexOffsets[i];
+            if (FaceIndex.countFaces(k, maxSize) > FACE_BUDGET) {
+                big[i] = true;
+            } else {
+                faceIndex.addFaces(simplexVertices, simplexOffsets[i], k);
+            }
+        }
+        faceIndex.seal();
+        this.postingOffsets = new int[n + 1];
+        this.bigPostingOffsets = new int[n + 1];
+        for (int i = 0; i < numSimplices; i++) {
+            for (int j = simplexOffsets[i]; j < simplexOffsets[i + 1]; j++) {
+                postingOffsets[indexOf(simplexVertices[j]) + 1]++;
+                if (big[i]) {
+                    bigPostingOffsets[indexOf(simplexVertices[j]) + 1]++;
+                }
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            postingOffsets[i + 1] += postingOffsets[i];
+            bigPostingOffsets[i + 1] += bigPostingOffsets[i];
+        }
+        this.postings = new int[postingOffsets[n]];
+        this.bigPostings = new int[bigPostingOffsets[n]];
+        int[] pos = Arrays.copyOf(postingOffsets, n);
+        int[] bigPos = Arrays.copyOf(bigPostingOffsets, n);
+        for (int i = 0; i < numSimplices; i++) {
+            for (int j = simplexOffsets[i]; j < simplexOffsets[i + 1]; j++) {
+                int idx = indexOf(simplexVertices[j]);
+                postings[pos[idx]++] = i;
+                if (big[i]) {
+                    bigPostings[bigPos[idx]++] = i;
+                }
+            }
+        }
+    }
+
+    private void buildAdjacency() {
+        int n = vertexIds.length;
+        int numSimplices = simplexOffsets.length - 1;
+        // first pass: upper bound to the degree of each vertex (with repetitions)
+        int[] starts = new int[n + 1];
+        for (int s = 0; s < numSimplices; s++) {
+            int k = simplexOffsets[s + 1] - simplexOffsets[s];
+            for (int j = simplexOffsets[s]; j < simplexOffsets[s + 1]; j++) {
+                starts[indexOf(simplexVertices[j]) + 1] += k - 1;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            starts[i + 1] += starts[i];
+        }
+        // second pass: fill the rows
+        int[] raw = new int[starts[n]];
+        int[] pos = Arrays.copyOf(starts, n);
+        for (int s = 0; s < numSimplices; s++) {
+            for (int a = simplexOffsets[s]; a < simplexOffsets[s + 1]; a++) {
+                int idx = indexOf(simplexVertices[a]);
+                for (int b = simplexOffsets[s]; b < simplexOffsets[s + 1]; b++) {
+                    if (a != b) {
+                        raw[pos[idx]++] = simplexVertices[b];
+                    }
+                }
+            }
+        }
+        // sort each row and remove the duplicates
+        this.offsets = new int[n + 1];
+        int size = 0;
+        for (int i = 0; i < n; i++) {
+            offsets[i] = size;
+            Arrays.sort(raw, starts[i], starts[i + 1]);
+            for (int j = starts[i]; j < starts[i + 1]; j++) {
+                if (size == offsets[i] || raw[size - 1] != raw[j]) {
+                    raw[size++] = raw[j];
+                }
+            }
+        }
+        offsets[n] = size;
+        this.adjacency = Arrays.copyOf(raw, size);
+    }
+
+    // bitmap neighbourhoods of the hub vertices; only for dense IDs, which keep the bitmaps small
+    private void buildDenseRows() {
+        int n = vertexIds.length;
+        this.denseRows = new long[n][];
+        if (!dense) {
+            return;
+        }
+        int threshold = Math.max(DENSE_DEGREE, n / DENSE_FRACTION);
+        for (int i = 0; i < n; i++) {
+            if (offsets[i + 1] - offsets[i] >= threshold) {
+                long[] bits = new long[(n + 63) >>> 6];
+                for (int j = offsets[i]; j < offsets[i + 1]; j++) {
+                    bits[adjacency[j] >>> 6] |= 1L << adjacency[j];
+                }
+                denseRows[i] = bits;
+            }
+        }
+    }
+
+    // position of v in the CSR arrays, or a negative value if v is not in the complex
+    private int indexOf(int v) {
+        if (dense) {
+            return (v >= 0 && v < vertexIds.length) ? v : -1;
+        }
+        return Arrays.binarySearch(vertexIds, v);
+    }
+
+    // ID of v in the input file
+    public int getOriginalId(int v) {
+        return originalIds == null ? v : originalIds[v];
+    }
+
+    // sorted copy of the neighbours of v
+    public int[] getNeighborsOf(int v) {
+        int idx = indexOf(v);
+        if (idx < 0) {
+            return new int[0];
+        }
+        return Arrays.copyOfRange(adjacency, offsets[idx], offsets[idx + 1]);
+    }
+
+    // copies the sorted neighbours of v in dst and returns their number
+    public int copyNeighborsOf(int v, int[] dst) {
+        int idx = indexOf(v);
+        if (idx < 0) {
+            return 0;
+        }
+        int len = offsets[idx + 1] - offsets[idx];
+        System.arraycopy(adjacency, offsets[idx], dst, 0, len);
+        return len;
+    }
+
+    public int getDegree(int v) {
+        int idx = indexOf(v);
+        if (idx < 0) {
+            return 0;
+        }
+        return offsets[idx + 1] - offsets[idx];
+    }
+
+    public int getMaxDegree() {
+        return maxDegree;
+    }
+
+    public boolean areNeighbors(int u, int v) {
+        int iu = indexOf(u);
+        int iv = indexOf(v);
+        if (iu < 0 || iv < 0) {
+            return false;
+        }
+        if (denseRows[iu] != null) {
+            return Intersections.contains(denseRows[iu], v);
+        }
+        if (denseRows[iv] != null) {
+            return Intersections.contains(denseRows[iv], u);
+        }
+        // search in the shorter row
+        if (offsets[iu + 1] - offsets[iu] > offsets[iv + 1] - offsets[iv]) {
+            return Arrays.binarySearch(adjacency, offsets[iv], offsets[iv + 1], u) >= 0;
+        }
+        return Arrays.binarySearch(adjacency, offsets[iu], offsets[iu + 1], v) >= 0;
+    }
+
+    // keeps in the first size positions of the sorted array cands only the neighbours of v;
+    // returns the number of candidates left
+    public int retainNeighborsOf(int v, int[] cands, int size) {
+        int idx = indexOf(v);
+        if (idx < 0) {
+            return 0;
+        }
+        if (denseRows[idx] != null) {
+            return Intersections.bitmap(cands, size, denseRows[idx]);
+        }
+        return Intersections.retain(cands, size, adjacency, offsets[idx], offsets[idx + 1]);
+    }
+
+    // whether v has a neighbour in set, given as bits indexed by vertex ID
+    public boolean hasNeighborIn(int v, BitSet set) {
+        int idx = indexOf(v);
+        if (idx < 0) {
+            return false;
+        }
+        for (int j = offsets[idx]; j < offsets[idx + 1]; j++) {
+            if (set.get(adjacency[j])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public VertexBitmap getVertices() {
+        return vertices.copy();
+    }
+
+    public VertexBitmap getCandVertices() {
+        return candVertices.copy();
+    }
+
     public int getNumVertices() {
-        return vertices.size();
+        return vertexIds.length;
     }
-    
+
     public int getNumberOfSimplices() {
-        return simplices.size();
-    }
-    
-    public Set<Simplex> getSimplices() {
-        return simplices;
-    }
-    
-    // checks ifx a simplex belongs to the complex
-    public boolean contains(List<Integer> simplex) {
-        Set<Integer> memb = Sets.newHashSet(vertexMap.getOrDefault(simplex.get(0), Sets.newHashSet()));
-        for (int i = 1; i < simplex.size(); i++) {
-            memb.retainAll(vertexMap.getOrDefault(simplex.get(i), Sets.newHashSet()));
-            if (memb.isEmpty()) {
+        return simplexOffsets.length - 1;
+    }
+
+    // vertices belonging to at least one simplex with k or more vertices;
+    // precomputed up to maxSize, the copy shares the containers of the cached set
+    public VertexBitmap getVerticesInSimplicesOfSize(int k) {
+        if (k >= 1 && k < verticesInSimplices.length) {
+            return verticesInSimplices[k].copy();
+        }
+        VertexBitmap res = new VertexBitmap();
+        for (int s = 0; s < simplexOffsets.length - 1; s++) {
+            if (simplexOffsets[s + 1] - simplexOffsets[s] >= k) {
+                for (int j = simplexOffsets[s]; j < simplexOffsets[s + 1]; j++) {
+                    res.add(simplexVertices[j]);
+                }
+            }
+        }
+        return res;
+    }
+
+    boolean isDense() {
+        return dense;
+    }
+
+    int[] getOriginalIds() {
+        return originalIds;
+    }
+
+    int[] getSimplexOffsets() {
+        return simplexOffsets;
+    }
+
+    int[] getSimplexVertices() {
+        return simplexVertices;
+    }
+
+    int[] getOffsets() {
+        return offsets;
+    }
+
+    int[] getAdjacency() {
+        return adjacency;
+    }
+
+    int[] getPostingOffsets() {
+        return postingOffsets;
+    }
+
+    int[] getPostings() {
+        return postings;
+    }
+
+    int[] getBigPostingOffsets() {
+        return bigPostingOffsets;
+    }
+
+    int[] getBigPostings() {
+        return bigPostings;
+    }
+
+    FaceIndex getFaceIndex() {
+        return faceIndex;
+    }
+
+    // checks if the vertices in simplex[0..size) form a simplex in the complex;
+    // the vertices are sorted in place
+    public boolean contains(int[] simplex, int size) {
+        for (int i = 1; i < size; i++) {
+            int v = simplex[i];
+            int j = i - 1;
+            while (j >= 0 && simplex[j] > v) {
+                simplex[j + 1] = simplex[j];
+                j--;
+            }
+            simplex[j + 1] = v;
+        }
+        if (size == 1) {
+            return indexOf(simplex[0]) >= 0;
+        }
+        if (size == 2) {
+            return areNeighbors(simplex[0], simplex[1]);
+        }
+        if (size <= faceIndex.getMaxSize()) {
+            return faceIndex.contains(simplex, size)
+                    || isInSimplexOf(bigPostingOffsets, bigPostings, simplex, size);
+        }
+        return isInSimplexOf(postingOffsets, postings, simplex, size);
+    }
+
+    // checks if a simplex listed in the postings contains all the sorted vertices in simplex[0..size)
+    private boolean isInSimplexOf(int[] postOffsets, int[] posts, int[] simplex, int size) {
+        // scan the shortest posting list
+        int best = -1;
+        for (int i = 0; i < size; i++) {
+            int idx = indexOf(simplex[i]);
+            if (idx < 0) {
                 return false;
             }
+            if (best < 0 || postOffsets[idx + 1] - postOffsets[idx] < postOffsets[best + 1] - postOffsets[best]) {
+                best = idx;
+            }
+        }
+        for (int p = postOffsets[best]; p < postOffsets[best + 1]; p++) {
+            int s = posts[p];
+            int from = simplexOffsets[s];
+            int to = simplexOffsets[s + 1];
+            if (to - from < size) {
+                continue;
+            }
+            boolean all = true;
+            for (int i = 0; i < size && all; i++) {
+                int pos = Arrays.binarySearch(simplexVertices, from, to, simplex[i]);
+                all = pos >= 0;
+                from = all ? pos + 1 : from;
+            }
+            if (all) {
+                return true;
+            }
         }
-        return !memb.isEmpty();
+        return false;
     }
 
 }
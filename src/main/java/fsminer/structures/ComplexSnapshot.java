@@ -0,0 +1,127 @@
+package fsminer.structures;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Binary snapshot of a Complex: the dense vertex IDs, the simplex rows, the
+// CSR adjacency, the simplex postings and the face index, so that a complex
+// can be opened without parsing the text file and rebuilding its indices.
+//
+// Layout (little endian): magic, version, number of vertices, max face size,
+// number of faces, followed by the arrays listed in write(), each one stored
+// as its length and its content, padded to 8 bytes.
+public class ComplexSnapshot {
+
+    private static final int MAGIC = 0x58435346; // "FSCX"
+    private static final int VERSION = 1;
+    private static final int HEADER = 24;
+
+    public static void write(Complex complex, String fileName) throws IOException {
+        if (!complex.isDense()) {
+            throw new IOException("Only complexes with dense vertex IDs can be stored");
+        }
+        FaceIndex faces = complex.getFaceIndex();
+        int[] originalIds = complex.getOriginalIds() == null ? new int[0] : complex.getOriginalIds();
+        int[][] ints = {
+            originalIds,
+            complex.getSimplexOffsets(),
+            complex.getSimplexVertices(),
+            complex.getOffsets(),
+            complex.getAdjacency(),
+            complex.getPostingOffsets(),
+            complex.getPostings(),
+            complex.getBigPostingOffsets(),
+            complex.getBigPostings(),
+            faces.getRefs(),
+            faces.getPool()
+        };
+        long[][] longs = {faces.getKeys(), faces.getBloom()};
+        long size = HEADER;
+        for (int[] a : ints) {
+            size += 8 + align(4L * a.length);
+        }
+        for (long[] a : longs) {
+            size += 8 + 8L * a.length;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Snapshot larger than 2GB: " + size + " bytes");
+        }
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "rw")) {
+            file.setLength(size);
+            MappedByteBuffer out = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            out.order(ByteOrder.LITTLE_ENDIAN);
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(complex.getNumVertices());
+            out.putInt(faces.getMaxSize());
+            out.putInt(faces.getNumFaces());
+            out.putInt(0);
+            for (int[] a : ints) {
+                out.putLong(a.length);
+                out.asIntBuffer().put(a);
+                out.position(out.position() + (int) align(4L * a.length));
+            }
+            for (long[] a : longs) {
+                out.putLong(a.length);
+                out.asLongBuffer().put(a);
+                out.position(out.position() + 8 * a.length);
+            }
+            out.force();
+        }
+    }
+
+    // maps the snapshot in memory and bulk-copies its arrays in the complex
+    public static Complex read(String fileName) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "r")) {
+            MappedByteBuffer in = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            in.order(ByteOrder.LITTLE_ENDIAN);
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+                throw new IOException(fileName + " is not a complex snapshot");
+            }
+            int numVertices = in.getInt();
+            int maxSize = in.getInt();
+            int numFaces = in.getInt();
+            in.getInt();
+            int[] originalIds = readInts(in);
+            int[] simplexOffsets = readInts(in);
+            int[] simplexVertices = readInts(in);
+            int[] offsets = readInts(in);
+            int[] adjacency = readInts(in);
+            int[] postingOffsets = readInts(in);
+            int[] postings = readInts(in);
+            int[] bigPostingOffsets = readInts(in);
+            int[] bigPostings = readInts(in);
+            int[] refs = readInts(in);
+            int[] pool = readInts(in);
+            long[] keys = readLongs(in);
+            long[] bloom = readLongs(in);
+            FaceIndex faces = new FaceIndex(maxSize, numFaces, keys, refs, pool, bloom);
+            return new Complex(numVertices, originalIds.length == 0 ? null : originalIds,
+                    simplexOffsets, simplexVertices, offsets, adjacency,
+                    postingOffsets, postings, bigPostingOffsets, bigPostings, faces);
+        }
+    }
+
+    private static int[] readInts(ByteBuffer in) {
+        int[] a = new int[(int) in.getLong()];
+        in.asIntBuffer().get(a);
+        in.position(in.position() + (int) align(4L * a.length));
+        return a;
+    }
+
+    private static long[] readLongs(ByteBuffer in) {
+        long[] a = new long[(int) in.getLong()];
+        in.asLongBuffer().get(a);
+        in.position(in.position() + 8 * a.length);
+        return a;
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+}
@@ -0,0 +1,219 @@
+package fsminer.structures;
+
+import java.util.Arrays;
+
+// Hash index of the faces with 3..maxSize vertices of a set of simplices.
+// Each face is stored once as a sorted vertex tuple and is addressed by a 64-bit
+// hash of the tuple; a Bloom filter in front of the table rejects most of the
+// faces not in the index without touching the table.
+public class FaceIndex {
+
+    private static final int BLOOM_BITS_PER_FACE = 10;
+
+    private final int maxSize;
+    private long[] keys; // open addressing table of face hashes (0 = empty slot)
+    private int[] refs; // slot -> position of the face in the pool
+    private int[] pool; // faces as [size, v1, ..., vsize]
+    private int poolSize;
+    private int numFaces;
+    private long[] bloom;
+    private int bloomMask;
+
+    public FaceIndex(int maxSize) {
+        this.maxSize = maxSize;
+        this.keys = new long[1024];
+        this.refs = new int[1024];
+        this.pool = new int[4096];
+        this.poolSize = 0;
+        this.numFaces = 0;
+    }
+
+    // restores a sealed index (see ComplexSnapshot)
+    FaceIndex(int maxSize, int numFaces, long[] keys, int[] refs, int[] pool, long[] bloom) {
+        this.maxSize = maxSize;
+        this.numFaces = numFaces;
+        this.keys = keys;
+        this.refs = refs;
+        this.pool = pool;
+        this.poolSize = pool.length;
+        this.bloom = bloom;
+        this.bloomMask = (int) (((long) bloom.length << 6) - 1);
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getNumFaces() {
+        return numFaces;
+    }
+
+    long[] getKeys() {
+        return keys;
+    }
+
+    int[] getRefs() {
+        return refs;
+    }
+
+    int[] getPool() {
+        return pool;
+    }
+
+    long[] getBloom() {
+        return bloom;
+    }
+
+    // number of faces with 3..maxSize vertices of a simplex with k vertices
+    public static long countFaces(int k, int maxSize) {
+        long total = 0;
+        long comb = (long) k * (k - 1) / 2;
+        for (int size = 3; size <= Math.min(k, maxSize); size++) {
+            comb = comb * (k - size + 1) / size;
+            total += comb;
+        }
+        return total;
+    }
+
+    // adds the faces of the simplex whose sorted vertices are vertices[from..from+k)
+    public void addFaces(int[] vertices, int from, int k) {
+        int[] face = new int[maxSize];
+        int[] pos = new int[maxSize];
+        for (int size = 3; size <= Math.min(k, maxSize); size++) {
+            // enumerate the combinations of size positions in lexicographic order
+            for (int i = 0; i < size; i++) {
+                pos[i] = i;
+            }
+            while (true) {
+                for (int i = 0; i < size; i++) {
+                    face[i] = vertices[from + pos[i]];
+                }
+                insert(face, size);
+                int i = size - 1;
+                while (i >= 0 && pos[i] == k - size + i) {
+                    i--;
+                }
+                if (i < 0) {
+                    break;
+                }
+                pos[i]++;
+                for (int j = i + 1; j < size; j++) {
+                    pos[j] = pos[j - 1] + 1;
+                }
+            }
+        }
+    }
+
+    private void insert(int[] face, int size) {
+        if (2 * (numFaces + 1) > keys.length) {
+            rehash(keys.length * 2);
+        }
+        long h = hash(face, size);
+        int mask = keys.length - 1;
+        int slot = (int) h & mask;
+        while (keys[slot] != 0) {
+            if (keys[slot] == h && sameFace(refs[slot], face, size)) {
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (poolSize + size + 1 > pool.length) {
+            pool = Arrays.copyOf(pool, Math.max(pool.length + (pool.length >> 1), poolSize + size + 1));
+        }
+        keys[slot] = h;
+        refs[slot] = poolSize;
+        pool[poolSize++] = size;
+        System.arraycopy(face, 0, pool, poolSize, size);
+        poolSize += size;
+        numFaces++;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldRefs = refs;
+        keys = new long[capacity];
+        refs = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = (int) oldKeys[i] & mask;
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                refs[slot] = oldRefs[i];
+            }
+        }
+    }
+
+    // trims the pool and builds the Bloom filter; to call once all the faces have been added
+    public void seal() {
+        pool = Arrays.copyOf(pool, poolSize);
+        long bits = Long.highestOneBit(Math.max(64L, (long) numFaces * BLOOM_BITS_PER_FACE) - 1) << 1;
+        bits = Math.min(bits, 1L << 31);
+        bloom = new long[(int) (bits >>> 6)];
+        bloomMask = (int) (bits - 1);
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                long h = keys[i];
+                int h1 = (int) h;
+                int h2 = (int) (h >>> 32);
+                for (int j = 0; j < 3; j++) {
+                    int bit = (h1 + j * h2) & bloomMask;
+                    bloom[bit >>> 6] |= 1L << bit;
+                }
+            }
+        }
+    }
+
+    // whether the sorted tuple face[0..size) is a face in the index
+    public boolean contains(int[] face, int size) {
+        if (size < 3 || size > maxSize || numFaces == 0) {
+            return false;
+        }
+        long h = hash(face, size);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        for (int j = 0; j < 3; j++) {
+            int bit = (h1 + j * h2) & bloomMask;
+            if ((bloom[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        int mask = keys.length - 1;
+        int slot = (int) h & mask;
+        while (keys[slot] != 0) {
+            if (keys[slot] == h && sameFace(refs[slot], face, size)) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    private boolean sameFace(int ref, int[] face, int size) {
+        if (pool[ref] != size) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (pool[ref + 1 + i] != face[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 64-bit hash of a sorted vertex tuple; never 0
+    static long hash(int[] face, int size) {
+        long h = 0x9E3779B97F4A7C15L * size;
+        for (int i = 0; i < size; i++) {
+            h = (h ^ face[i]) * 0xFF51AFD7ED558CCDL;
+            h ^= h >>> 29;
+        }
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+
+}
@@ -0,0 +1,121 @@
+package fsminer.structures;
+
+// Intersection kernels over sorted int arrays, used for the neighbourhood
+// intersections of the candidate generation. Each kernel keeps in the first
+// size positions of cands only the values found in the other set, in place and
+// in order, and returns how many are left:
+// - merge: linear scan of both arrays, for sets of similar size;
+// - gallop: exponential then binary search of the elements of the smaller set
+//   in the larger one, for sets of very different sizes;
+// - bitmap: one bit test per candidate, for the dense rows of the hub vertices.
+// retain() picks the kernel from the sizes of the two sets.
+public class Intersections {
+
+    // size ratio above which galloping beats the linear merge
+    static final int GALLOP_RATIO = 8;
+
+    // keeps in cands[0..size) the values in row[from..to)
+    public static int retain(int[] cands, int size, int[] row, int from, int to) {
+        int len = to - from;
+        if (size == 0 || len == 0) {
+            return 0;
+        }
+        if ((long) size * GALLOP_RATIO < len) {
+            return gallop(cands, size, row, from, to);
+        }
+        if ((long) len * GALLOP_RATIO < size) {
+            return gallopInto(cands, size, row, from, to);
+        }
+        return merge(cands, size, row, from, to);
+    }
+
+    // linear merge; the pointers advance without data-dependent branches, which
+    // the JIT turns into conditional moves
+    public static int merge(int[] cands, int size, int[] row, int from, int to) {
+        int out = 0;
+        int i = 0;
+        int j = from;
+        while (i < size && j < to) {
+            int a = cands[i];
+            int b = row[j];
+            cands[out] = a;
+            out += a == b ? 1 : 0;
+            i += a <= b ? 1 : 0;
+            j += a >= b ? 1 : 0;
+        }
+        return out;
+    }
+
+    // each candidate is searched in row, from the position of the previous one
+    public static int gallop(int[] cands, int size, int[] row, int from, int to) {
+        int out = 0;
+        for (int i = 0; i < size && from < to; i++) {
+            int pos = search(row, from, to, cands[i]);
+            if (pos >= 0) {
+                cands[out++] = cands[i];
+                from = pos + 1;
+            } else {
+                from = -pos - 1;
+            }
+        }
+        return out;
+    }
+
+    // each value of the row is searched in cands; the matches are moved to the
+    // front of cands, which never overtakes the search position
+    public static int gallopInto(int[] cands, int size, int[] row, int from, int to) {
+        int out = 0;
+        int start = 0;
+        for (int j = from; j < to && start < size; j++) {
+            int pos = search(cands, start, size, row[j]);
+            if (pos >= 0) {
+                cands[out++] = cands[pos];
+                start = pos + 1;
+            } else {
+                start = -pos - 1;
+            }
+        }
+        return out;
+    }
+
+    // keeps the candidates whose bit is set
+    public static int bitmap(int[] cands, int size, long[] bits) {
+        int out = 0;
+        for (int i = 0; i < size; i++) {
+            int v = cands[i];
+            cands[out] = v;
+            out += contains(bits, v) ? 1 : 0;
+        }
+        return out;
+    }
+
+    public static boolean contains(long[] bits, int v) {
+        int word = v >>> 6;
+        return word < bits.length && (bits[word] & (1L << v)) != 0;
+    }
+
+    // position of key in a[from..to), or -(insertion point) - 1 like Arrays.binarySearch;
+    // the range is first narrowed by doubling steps from the start, since the key
+    // is usually close to it
+    static int search(int[] a, int from, int to, int key) {
+        int lo = from;
+        int step = 1;
+        int hi = from;
+        while (hi < to && a[hi] < key) {
+            lo = hi + 1;
+            hi = from + step;
+            step <<= 1;
+        }
+        hi = Math.min(hi + 1, to);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (a[mid] < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo < to && a[lo] == key ? lo : -lo - 1;
+    }
+
+}
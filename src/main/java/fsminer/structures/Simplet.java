@@ -21,13 +21,18 @@ public class Simplet extends Simpl {
     private Map<Integer, Set<Integer>> neighbours; // neighbours of each vertex: VID -> vertices belonging to a common simplex;
     private Map<String, List<Integer>> cofaceSimplexMap; // for each coface, it gives the positions in the simplex list of the simplices with that coface
     private HashBasedTable<Integer, Integer, Set<Integer>> simplexNeighbours; //(dimension, simplex pos) -> positions in the simplex list of simplices sharing a coface
-    private Map<Integer, Set<Integer>> images; // image sets associated to the vertices: VID -> complex vertices mapped to VID
-    private Map<Integer, Set<Integer>> nonCands; // mappings not valid found during the single match search
+    private Map<Integer, VertexBitmap> images; // image sets associated to the vertices: VID -> complex vertices mapped to VID
+    private Map<Integer, VertexBitmap> nonCands; // mappings not valid found during the single match search
     private JBlissPattern canForm; // canonical form of the simplet
     private JBlissPattern graphProj; // canonical form of the underlying graph
     private Map<Integer, Set<Integer>> orbitRepresentatives; // orbit representatives of the simplet
     private Map<Integer, Integer> orbitMemberships; // VID -> orbit representative
     private double freq;
+    private boolean incomplete; // whether freq is a lower bound, as the examination ran out of time
+    private double freqLower = Double.NaN; // interval of freq, if it has been estimated by sampling
+    private double freqUpper = Double.NaN;
+    private int[] witnesses; // embeddings found by the min-based search, getNumVertices() complex vertices each
+    private Map<Integer, VertexBitmap> domains; // arc-consistent upper bounds to the images in the min-based search
     private int dimension;
     private int incrId;
 
@@ -47,7 +52,7 @@ public class Simplet extends Simpl {
     public Simplet(int id, Simplet s, boolean allMatches) {
         super(id, Sets.newHashSet(s.getVertices()));
         if (allMatches) {
-            this.images = Utils.copyMap(s.getImages());
+            this.images = Utils.copyImages(s.getImages());
         } else {
             this.images = Maps.newHashMap();
         }
@@ -56,6 +61,7 @@ public class Simplet extends Simpl {
     }
 
     private void initializeStructures() {
+        this.witnesses = new int[0];
         this.canForm = null;
         this.graphProj = null;
         this.orbitRepresentatives = Maps.newHashMap();
@@ -225,13 +231,13 @@ public class Simplet extends Simpl {
         this.incrId = incrId;
     }
 
-    public void setImages(Map<Integer, Set<Integer>> ubs) {
+    public void setImages(Map<Integer, VertexBitmap> ubs) {
         if (ubs.isEmpty()) {
             this.images = Collections.EMPTY_MAP;
             return;
         }
         ubs.entrySet().forEach(e -> {
-            this.images.put(e.getKey(), Sets.newHashSet(e.getValue()));
+            this.images.put(e.getKey(), e.getValue().copy());
         });
     }
     
@@ -240,23 +246,23 @@ public class Simplet extends Simpl {
         this.images = Collections.EMPTY_MAP;
     }
 
-    public void addUBImage(int v, Set<Integer> image) {
-        images.put(v, Sets.newHashSet(image));
+    public void addUBImage(int v, VertexBitmap image) {
+        images.put(v, image.copy());
     }
 
-    public Map<Integer, Set<Integer>> getImages() {
+    public Map<Integer, VertexBitmap> getImages() {
         return images;
     }
 
-    public Set<Integer> getImageOf(int v) {
+    public VertexBitmap getImageOf(int v) {
         return images.get(v);
     }
     
-    public Map<Integer, Set<Integer>> getNonCands() {
+    public Map<Integer, VertexBitmap> getNonCands() {
         return nonCands;
     }
     
-    public void setNonCands(Map<Integer, Set<Integer>> nonCands) {
+    public void setNonCands(Map<Integer, VertexBitmap> nonCands) {
         this.nonCands = nonCands;
     }
 
@@ -264,8 +270,9 @@ public class Simplet extends Simpl {
         if (images.isEmpty()) {
             return 0;
         }
-        if (supportMeasure.equalsIgnoreCase("mni")) {
-            freq = images.values().stream().mapToInt(s -> s.size()).min().orElse(0);
+        if (supportMeasure.equalsIgnoreCase("mni")
+                || (supportMeasure.equalsIgnoreCase("mni-approx") && !isEstimated())) {
+            freq = images.values().stream().mapToInt(s -> s.cardinality()).min().orElse(0);
         }
         return freq;
     }
@@ -278,6 +285,49 @@ public class Simplet extends Simpl {
         this.freq = freq;
     }
 
+    // support estimated by sampling, with its confidence interval
+    public void setSupportInterval(double estimate, double lower, double upper) {
+        this.freq = estimate;
+        this.freqLower = lower;
+        this.freqUpper = upper;
+    }
+
+    public boolean isEstimated() {
+        return !Double.isNaN(freqLower);
+    }
+
+    public double getFreqLower() {
+        return freqLower;
+    }
+
+    public double getFreqUpper() {
+        return freqUpper;
+    }
+
+    public int[] getWitnesses() {
+        return witnesses;
+    }
+
+    public void setWitnesses(int[] witnesses) {
+        this.witnesses = witnesses;
+    }
+
+    public Map<Integer, VertexBitmap> getDomains() {
+        return domains;
+    }
+
+    public void setDomains(Map<Integer, VertexBitmap> domains) {
+        this.domains = domains;
+    }
+
+    public boolean isIncomplete() {
+        return incomplete;
+    }
+
+    public void setIncomplete(boolean incomplete) {
+        this.incomplete = incomplete;
+    }
+
     public int getDimension() {
         return dimension;
     }
@@ -305,16 +355,20 @@ public class Simplet extends Simpl {
         return cofaceSimplexMap;
     }
 
-    // compute canonical form of the simplet
+    // compute canonical form of the simplet; the orbits are published only once
+    // both maps are filled, the representatives last since they mark them as computed
     public JBlissPattern computeCanonicalForm() {
         JBlissPattern p = new JBlissPattern(getAllHDSimplices(), true);
         p.turnCanonical();
-        orbitRepresentatives = p.getOrbitRepresentatives();
+        Map<Integer, Set<Integer>> representatives = p.getOrbitRepresentatives();
+        Map<Integer, Integer> memberships = Maps.newHashMap();
 //        printSimplet();
-//        System.out.println("OR: " + orbitRepresentatives.toString());
-        orbitRepresentatives.entrySet().stream()
+//        System.out.println("OR: " + representatives.toString());
+        representatives.entrySet().stream()
                 .filter(e -> !e.getValue().isEmpty())
-                .forEach(e -> e.getValue().stream().forEach(v -> orbitMemberships.put(v, e.getKey())));
+                .forEach(e -> e.getValue().stream().forEach(v -> memberships.put(v, e.getKey())));
+        orbitMemberships = memberships;
+        orbitRepresentatives = representatives;
         return p;
     }
 
@@ -434,6 +488,16 @@ public class Simplet extends Simpl {
         return out;
     }
 
+    // line of the simplet in the output files, with the interval of its support if
+    // estimated, and flagged if its support is incomplete
+    public String toResultString() {
+        String out = toString();
+        if (isEstimated()) {
+            out += String.format("\t[%.1f, %.1f]", freqLower, freqUpper);
+        }
+        return incomplete ? out + "\tincomplete" : out;
+    }
+
     public void printSimplet() {
         for (Simplex s : getAllHDSimplices()) {
             System.out.print(s.toString() + "-");
@@ -40,6 +40,11 @@ public class Simplex extends Simpl {
         return getVertices().equals(that.getVertices());
     }
 
+    @Override
+    public int hashCode() {
+        return getVertices().hashCode();
+    }
+
     @Override
     public Simpl copy() {
         Set<Integer> newV = Sets.newHashSet(getVertices());
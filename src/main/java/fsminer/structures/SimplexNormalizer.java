@@ -0,0 +1,145 @@
+package fsminer.structures;
+
+import java.util.Arrays;
+
+// Load-time normalisation of the input simplices: duplicates (same vertex set)
+// are dropped and, optionally, so are the simplices that are faces of another
+// simplex. Since the face closure does not change, neither do the answers
+// of the Complex queries.
+public class SimplexNormalizer {
+
+    // sorts the tuples in place and returns the ones kept
+    public static int[][] normalize(int[][] tuples, boolean maximalOnly) {
+        int num = tuples.length;
+        for (int i = 0; i < num; i++) {
+            tuples[i] = canonical(tuples[i]);
+        }
+        boolean[] dropped = new boolean[num];
+        for (int i = 0; i < num; i++) {
+            dropped[i] = tuples[i].length == 0;
+        }
+        dropDuplicates(tuples, dropped);
+        if (maximalOnly) {
+            dropFaces(tuples, dropped);
+        }
+        int kept = 0;
+        for (int i = 0; i < num; i++) {
+            if (!dropped[i]) {
+                kept++;
+            }
+        }
+        int[][] res = new int[kept][];
+        for (int i = 0, j = 0; i < num; i++) {
+            if (!dropped[i]) {
+                res[j++] = tuples[i];
+            }
+        }
+        return res;
+    }
+
+    // sorted tuple without repeated vertices
+    private static int[] canonical(int[] t) {
+        Arrays.sort(t);
+        int size = 0;
+        for (int i = 0; i < t.length; i++) {
+            if (size == 0 || t[size - 1] != t[i]) {
+                t[size++] = t[i];
+            }
+        }
+        return size == t.length ? t : Arrays.copyOf(t, size);
+    }
+
+    // marks as dropped all but the first occurrence of each tuple
+    private static void dropDuplicates(int[][] tuples, boolean[] dropped) {
+        int capacity = Integer.highestOneBit(Math.max(2, tuples.length) * 2 - 1) << 1;
+        long[] keys = new long[capacity];
+        int[] firsts = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < tuples.length; i++) {
+            if (dropped[i]) {
+                continue;
+            }
+            long h = FaceIndex.hash(tuples[i], tuples[i].length);
+            int slot = (int) h & mask;
+            while (keys[slot] != 0) {
+                if (keys[slot] == h && Arrays.equals(tuples[firsts[slot]], tuples[i])) {
+                    dropped[i] = true;
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (!dropped[i]) {
+                keys[slot] = h;
+                firsts[slot] = i;
+            }
+        }
+    }
+
+    // marks as dropped the tuples contained in a larger tuple
+    private static void dropFaces(int[][] tuples, boolean[] dropped) {
+        // postings: vertex -> tuples containing it
+        int maxV = -1;
+        for (int[] t : tuples) {
+            for (int v : t) {
+                maxV = Math.max(maxV, v);
+            }
+        }
+        int[] offsets = new int[maxV + 2];
+        for (int i = 0; i < tuples.length; i++) {
+            if (!dropped[i]) {
+                for (int v : tuples[i]) {
+                    offsets[v + 1]++;
+                }
+            }
+        }
+        for (int v = 0; v <= maxV; v++) {
+            offsets[v + 1] += offsets[v];
+        }
+        int[] postings = new int[offsets[maxV + 1]];
+        int[] pos = Arrays.copyOf(offsets, maxV + 1);
+        for (int i = 0; i < tuples.length; i++) {
+            if (!dropped[i]) {
+                for (int v : tuples[i]) {
+                    postings[pos[v]++] = i;
+                }
+            }
+        }
+        for (int i = 0; i < tuples.length; i++) {
+            if (dropped[i]) {
+                continue;
+            }
+            int[] t = tuples[i];
+            // scan the shortest posting list among the vertices of t
+            int best = t[0];
+            for (int v : t) {
+                if (offsets[v + 1] - offsets[v] < offsets[best + 1] - offsets[best]) {
+                    best = v;
+                }
+            }
+            for (int p = offsets[best]; p < offsets[best + 1]; p++) {
+                int[] other = tuples[postings[p]];
+                // the postings still list the dropped tuples, but a tuple is only
+                // dropped if a larger tuple contains it, which then contains t as well
+                if (other.length > t.length && containsAll(other, t)) {
+                    dropped[i] = true;
+                    break;
+                }
+            }
+        }
+    }
+
+    private static boolean containsAll(int[] sup, int[] sub) {
+        int j = 0;
+        for (int i = 0; i < sub.length; i++) {
+            while (j < sup.length && sup[j] < sub[i]) {
+                j++;
+            }
+            if (j == sup.length || sup[j] != sub[i]) {
+                return false;
+            }
+            j++;
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,882 @@
+package fsminer.structures;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+// Compressed set of vertex IDs in the style of Roaring bitmaps. The IDs are
+// split in chunks by their 16 high bits, and each chunk keeps its 16 low bits
+// in the container that fits it best:
+// - a sorted array, for chunks with at most 4096 IDs;
+// - a bitmap of 2^16 bits, for denser chunks;
+// - a list of runs of consecutive IDs, for chunks such as 0..n-1 (see runOptimize).
+// Copies are copy-on-write: a copy shares the containers of the original until
+// one of the two adds an ID to a chunk. The IDs are iterated in increasing order.
+// Not thread safe: a bitmap must not be modified while other threads read or copy it.
+public class VertexBitmap {
+
+    private static final int ARRAY_MAX = 4096;
+    private static final int BITMAP_WORDS = 1 << 10;
+
+    private char[] keys; // sorted 16 high bits of the chunks
+    private Container[] containers;
+    private int size; // number of chunks
+
+    public VertexBitmap() {
+        this.keys = new char[4];
+        this.containers = new Container[4];
+        this.size = 0;
+    }
+
+    private VertexBitmap(char[] keys, Container[] containers, int size) {
+        this.keys = keys;
+        this.containers = containers;
+        this.size = size;
+    }
+
+    // bitmap with the IDs from..to-1, stored as runs
+    public static VertexBitmap range(int from, int to) {
+        VertexBitmap res = new VertexBitmap();
+        for (long start = from; start < to; start = (start | 0xFFFF) + 1) {
+            long end = Math.min(to, (start | 0xFFFF) + 1); // exclusive
+            RunContainer run = new RunContainer(new char[]{(char) start, (char) (end - start - 1)}, 1);
+            res.append((char) (start >>> 16), run);
+        }
+        return res;
+    }
+
+    public static VertexBitmap of(int... ids) {
+        VertexBitmap res = new VertexBitmap();
+        for (int id : ids) {
+            res.add(id);
+        }
+        return res;
+    }
+
+    public void add(int id) {
+        char key = (char) (id >>> 16);
+        int i = findKey(key);
+        if (i >= 0) {
+            if (containers[i].shared) {
+                containers[i] = containers[i].copy();
+            }
+            containers[i] = containers[i].add((char) id);
+        } else {
+            insert(-i - 1, key, new ArrayContainer().add((char) id));
+        }
+    }
+
+    public boolean contains(int id) {
+        int i = findKey((char) (id >>> 16));
+        return i >= 0 && containers[i].contains((char) id);
+    }
+
+    public int cardinality() {
+        int card = 0;
+        for (int i = 0; i < size; i++) {
+            card += containers[i].cardinality();
+        }
+        return card;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // copy-on-write copy, in time linear in the number of chunks
+    public VertexBitmap copy() {
+        freeze();
+        return new VertexBitmap(Arrays.copyOf(keys, Math.max(size, 1)), Arrays.copyOf(containers, Math.max(size, 1)), size);
+    }
+
+    // marks all the containers as shared: as long as the bitmap is not modified,
+    // it can then be copied concurrently by several threads
+    public VertexBitmap freeze() {
+        for (int i = 0; i < size; i++) {
+            containers[i].share();
+        }
+        return this;
+    }
+
+    // adds the IDs in o
+    public VertexBitmap or(VertexBitmap o) {
+        char[] newKeys = new char[size + o.size];
+        Container[] newContainers = new Container[size + o.size];
+        int i = 0, j = 0, k = 0;
+        while (i < size || j < o.size) {
+            if (j == o.size || (i < size && keys[i] < o.keys[j])) {
+                newKeys[k] = keys[i];
+                newContainers[k++] = containers[i++];
+            } else if (i == size || o.keys[j] < keys[i]) {
+                o.containers[j].share();
+                newKeys[k] = o.keys[j];
+                newContainers[k++] = o.containers[j++];
+            } else {
+                newKeys[k] = keys[i];
+                newContainers[k++] = containers[i++].or(o.containers[j++]);
+            }
+        }
+        this.keys = newKeys;
+        this.containers = newContainers;
+        this.size = k;
+        return this;
+    }
+
+    // keeps only the IDs in o
+    public VertexBitmap and(VertexBitmap o) {
+        int i = 0, j = 0, k = 0;
+        while (i < size && j < o.size) {
+            if (keys[i] < o.keys[j]) {
+                i++;
+            } else if (o.keys[j] < keys[i]) {
+                j++;
+            } else {
+                Container c = containers[i].and(o.containers[j]);
+                if (c.cardinality() > 0) {
+                    keys[k] = keys[i];
+                    containers[k++] = c;
+                }
+                i++;
+                j++;
+            }
+        }
+        Arrays.fill(containers, k, size, null);
+        this.size = k;
+        return this;
+    }
+
+    // removes the IDs in o
+    public VertexBitmap andNot(VertexBitmap o) {
+        int i = 0, j = 0, k = 0;
+        while (i < size) {
+            while (j < o.size && o.keys[j] < keys[i]) {
+                j++;
+            }
+            Container c = containers[i];
+            if (j < o.size && o.keys[j] == keys[i]) {
+                c = c.andNot(o.containers[j]);
+            }
+            if (c.cardinality() > 0) {
+                keys[k] = keys[i];
+                containers[k++] = c;
+            }
+            i++;
+        }
+        Arrays.fill(containers, k, size, null);
+        this.size = k;
+        return this;
+    }
+
+    // stores each chunk in its smallest container
+    public VertexBitmap runOptimize() {
+        for (int i = 0; i < size; i++) {
+            containers[i] = containers[i].optimize();
+        }
+        return this;
+    }
+
+    public int[] toArray() {
+        int[] res = new int[cardinality()];
+        int pos = 0;
+        for (int i = 0; i < size; i++) {
+            pos = containers[i].fill(res, pos, keys[i] << 16);
+        }
+        return res;
+    }
+
+    public void forEach(IntConsumer action) {
+        PrimitiveIterator.OfInt it = iterator();
+        while (it.hasNext()) {
+            action.accept(it.nextInt());
+        }
+    }
+
+    public IntStream stream() {
+        return StreamSupport.intStream(Spliterators.spliterator(iterator(), cardinality(),
+                Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.SORTED | Spliterator.NONNULL), false);
+    }
+
+    public PrimitiveIterator.OfInt iterator() {
+        return new PrimitiveIterator.OfInt() {
+            int chunk = 0;
+            int high = 0;
+            ChunkIterator current = advance();
+
+            private ChunkIterator advance() {
+                while (chunk < size) {
+                    high = keys[chunk] << 16;
+                    ChunkIterator it = containers[chunk++].iterator();
+                    if (it.hasNext()) {
+                        return it;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return current != null;
+            }
+
+            @Override
+            public int nextInt() {
+                if (current == null) {
+                    throw new NoSuchElementException();
+                }
+                int res = high | current.next();
+                if (!current.hasNext()) {
+                    current = advance();
+                }
+                return res;
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof VertexBitmap)) {
+            return false;
+        }
+        return Arrays.equals(toArray(), ((VertexBitmap) o).toArray());
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(toArray());
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+
+    private int findKey(char key) {
+        // the last chunk is checked first, since the IDs are mostly added in increasing order
+        if (size > 0 && keys[size - 1] == key) {
+            return size - 1;
+        }
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    private void insert(int i, char key, Container c) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(containers, i, containers, i + 1, size - i);
+        keys[i] = key;
+        containers[i] = c;
+        size++;
+    }
+
+    private void append(char key, Container c) {
+        insert(size, key, c);
+    }
+
+    private interface ChunkIterator {
+
+        boolean hasNext();
+
+        int next();
+    }
+
+    // A chunk of IDs. add() modifies the container and returns the container to keep
+    // in its place; and(), or() and andNot() leave their operands untouched.
+    private abstract static class Container {
+
+        boolean shared; // whether more than one bitmap holds the container
+
+        // containers already shared are not written again (see freeze)
+        void share() {
+            if (!shared) {
+                shared = true;
+            }
+        }
+
+        abstract int cardinality();
+
+        abstract boolean contains(char x);
+
+        abstract Container add(char x);
+
+        abstract Container and(Container o);
+
+        abstract Container or(Container o);
+
+        abstract Container andNot(Container o);
+
+        abstract Container copy();
+
+        // the same IDs in the smallest container
+        abstract Container optimize();
+
+        // writes the IDs (with the given high bits) in out, starting at pos
+        abstract int fill(int[] out, int pos, int high);
+
+        abstract ChunkIterator iterator();
+
+        abstract BitmapContainer toBitmap();
+
+        static int numRuns(BitmapContainer b) {
+            int runs = 0;
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                long w = b.words[i];
+                long next = i + 1 < BITMAP_WORDS ? b.words[i + 1] : 0;
+                runs += Long.bitCount((w << 1) & ~w) + (int) ((w >>> 63) & ~next);
+            }
+            return runs;
+        }
+
+        // smallest container for the IDs in b
+        static Container smallest(BitmapContainer b) {
+            int runs = numRuns(b);
+            int arrayBytes = 2 * b.card;
+            int runBytes = 4 * runs;
+            if (runBytes < Math.min(arrayBytes, 8 * BITMAP_WORDS)) {
+                return RunContainer.fromBitmap(b, runs);
+            }
+            return b.card <= ARRAY_MAX ? b.toArrayContainer() : b;
+        }
+    }
+
+    private static class ArrayContainer extends Container {
+
+        char[] content;
+        int card;
+
+        ArrayContainer() {
+            this(new char[4], 0);
+        }
+
+        ArrayContainer(char[] content, int card) {
+            this.content = content;
+            this.card = card;
+        }
+
+        @Override
+        int cardinality() {
+            return card;
+        }
+
+        @Override
+        boolean contains(char x) {
+            if (card > 0 && content[card - 1] == x) {
+                return true;
+            }
+            return Arrays.binarySearch(content, 0, card, x) >= 0;
+        }
+
+        @Override
+        Container add(char x) {
+            int pos = (card == 0 || content[card - 1] < x) ? -card - 1 : Arrays.binarySearch(content, 0, card, x);
+            if (pos >= 0) {
+                return this;
+            }
+            if (card == ARRAY_MAX) {
+                return toBitmap().add(x);
+            }
+            pos = -pos - 1;
+            if (card == content.length) {
+                content = Arrays.copyOf(content, Math.min(ARRAY_MAX, card * 2));
+            }
+            System.arraycopy(content, pos, content, pos + 1, card - pos);
+            content[pos] = x;
+            card++;
+            return this;
+        }
+
+        @Override
+        Container and(Container o) {
+            char[] res = new char[card];
+            int k = 0;
+            if (o instanceof ArrayContainer) {
+                ArrayContainer a = (ArrayContainer) o;
+                int i = 0, j = 0;
+                while (i < card && j < a.card) {
+                    if (content[i] < a.content[j]) {
+                        i++;
+                    } else if (a.content[j] < content[i]) {
+                        j++;
+                    } else {
+                        res[k++] = content[i];
+                        i++;
+                        j++;
+                    }
+                }
+            } else {
+                for (int i = 0; i < card; i++) {
+                    if (o.contains(content[i])) {
+                        res[k++] = content[i];
+                    }
+                }
+            }
+            return new ArrayContainer(res, k);
+        }
+
+        @Override
+        Container or(Container o) {
+            if (!(o instanceof ArrayContainer)) {
+                return o.or(this);
+            }
+            ArrayContainer a = (ArrayContainer) o;
+            if (card + a.card > ARRAY_MAX) {
+                BitmapContainer b = toBitmap();
+                for (int j = 0; j < a.card; j++) {
+                    b.set(a.content[j]);
+                }
+                return b.card <= ARRAY_MAX ? b.toArrayContainer() : b;
+            }
+            char[] res = new char[card + a.card];
+            int i = 0, j = 0, k = 0;
+            while (i < card || j < a.card) {
+                if (j == a.card || (i < card && content[i] < a.content[j])) {
+                    res[k++] = content[i++];
+                } else if (i == card || a.content[j] < content[i]) {
+                    res[k++] = a.content[j++];
+                } else {
+                    res[k++] = content[i++];
+                    j++;
+                }
+            }
+            return new ArrayContainer(res, k);
+        }
+
+        @Override
+        Container andNot(Container o) {
+            char[] res = new char[card];
+            int k = 0;
+            for (int i = 0; i < card; i++) {
+                if (!o.contains(content[i])) {
+                    res[k++] = content[i];
+                }
+            }
+            return new ArrayContainer(res, k);
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(content, Math.max(card, 4)), card);
+        }
+
+        @Override
+        Container optimize() {
+            int runs = 0;
+            for (int i = 0; i < card; i++) {
+                if (i == 0 || content[i] != content[i - 1] + 1) {
+                    runs++;
+                }
+            }
+            if (4 * runs < 2 * card) {
+                return RunContainer.fromBitmap(toBitmap(), runs);
+            }
+            return this;
+        }
+
+        @Override
+        int fill(int[] out, int pos, int high) {
+            for (int i = 0; i < card; i++) {
+                out[pos++] = high | content[i];
+            }
+            return pos;
+        }
+
+        @Override
+        ChunkIterator iterator() {
+            return new ChunkIterator() {
+                int i = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return i < card;
+                }
+
+                @Override
+                public int next() {
+                    return content[i++];
+                }
+            };
+        }
+
+        @Override
+        BitmapContainer toBitmap() {
+            BitmapContainer b = new BitmapContainer();
+            for (int i = 0; i < card; i++) {
+                b.set(content[i]);
+            }
+            return b;
+        }
+    }
+
+    private static class BitmapContainer extends Container {
+
+        long[] words;
+        int card;
+
+        BitmapContainer() {
+            this(new long[BITMAP_WORDS], 0);
+        }
+
+        BitmapContainer(long[] words, int card) {
+            this.words = words;
+            this.card = card;
+        }
+
+        void set(char x) {
+            long before = words[x >>> 6];
+            words[x >>> 6] |= 1L << x;
+            if (before != words[x >>> 6]) {
+                card++;
+            }
+        }
+
+        // sets the bits from..to (inclusive)
+        void setRange(int from, int to) {
+            for (int i = from >>> 6; i <= to >>> 6; i++) {
+                words[i] |= rangeMask(i, from, to);
+            }
+        }
+
+        void clearRange(int from, int to) {
+            for (int i = from >>> 6; i <= to >>> 6; i++) {
+                words[i] &= ~rangeMask(i, from, to);
+            }
+        }
+
+        // bits of word i that are in from..to
+        static long rangeMask(int i, int from, int to) {
+            long mask = -1L;
+            if (i == from >>> 6) {
+                mask &= -1L << from;
+            }
+            if (i == to >>> 6) {
+                mask &= -1L >>> (63 - (to & 63));
+            }
+            return mask;
+        }
+
+        void recount() {
+            card = 0;
+            for (long w : words) {
+                card += Long.bitCount(w);
+            }
+        }
+
+        @Override
+        int cardinality() {
+            return card;
+        }
+
+        @Override
+        boolean contains(char x) {
+            return (words[x >>> 6] & (1L << x)) != 0;
+        }
+
+        @Override
+        Container add(char x) {
+            set(x);
+            return this;
+        }
+
+        @Override
+        Container and(Container o) {
+            if (o instanceof ArrayContainer) {
+                return o.and(this);
+            }
+            BitmapContainer b = o instanceof BitmapContainer ? (BitmapContainer) o : o.toBitmap();
+            long[] res = new long[BITMAP_WORDS];
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                res[i] = words[i] & b.words[i];
+            }
+            BitmapContainer r = new BitmapContainer(res, 0);
+            r.recount();
+            return r.card <= ARRAY_MAX ? r.toArrayContainer() : r;
+        }
+
+        @Override
+        Container or(Container o) {
+            BitmapContainer r = (BitmapContainer) copy();
+            if (o instanceof ArrayContainer) {
+                ArrayContainer a = (ArrayContainer) o;
+                for (int j = 0; j < a.card; j++) {
+                    r.set(a.content[j]);
+                }
+                return r;
+            } else if (o instanceof RunContainer) {
+                RunContainer run = (RunContainer) o;
+                for (int j = 0; j < run.nbRuns; j++) {
+                    r.setRange(run.start(j), run.end(j));
+                }
+            } else {
+                BitmapContainer b = (BitmapContainer) o;
+                for (int i = 0; i < BITMAP_WORDS; i++) {
+                    r.words[i] |= b.words[i];
+                }
+            }
+            r.recount();
+            return r;
+        }
+
+        @Override
+        Container andNot(Container o) {
+            BitmapContainer r = (BitmapContainer) copy();
+            if (o instanceof ArrayContainer) {
+                ArrayContainer a = (ArrayContainer) o;
+                for (int j = 0; j < a.card; j++) {
+                    r.words[a.content[j] >>> 6] &= ~(1L << a.content[j]);
+                }
+            } else if (o instanceof RunContainer) {
+                RunContainer run = (RunContainer) o;
+                for (int j = 0; j < run.nbRuns; j++) {
+                    r.clearRange(run.start(j), run.end(j));
+                }
+            } else {
+                BitmapContainer b = (BitmapContainer) o;
+                for (int i = 0; i < BITMAP_WORDS; i++) {
+                    r.words[i] &= ~b.words[i];
+                }
+            }
+            r.recount();
+            return r.card <= ARRAY_MAX ? r.toArrayContainer() : r;
+        }
+
+        @Override
+        Container copy() {
+            return new BitmapContainer(words.clone(), card);
+        }
+
+        @Override
+        Container optimize() {
+            return smallest(this);
+        }
+
+        @Override
+        int fill(int[] out, int pos, int high) {
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                long w = words[i];
+                while (w != 0) {
+                    out[pos++] = high | (i << 6) | Long.numberOfTrailingZeros(w);
+                    w &= w - 1;
+                }
+            }
+            return pos;
+        }
+
+        @Override
+        ChunkIterator iterator() {
+            return new ChunkIterator() {
+                int i = 0;
+                long w = words[0];
+
+                {
+                    skip();
+                }
+
+                private void skip() {
+                    while (w == 0 && i < BITMAP_WORDS - 1) {
+                        w = words[++i];
+                    }
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return w != 0;
+                }
+
+                @Override
+                public int next() {
+                    int res = (i << 6) | Long.numberOfTrailingZeros(w);
+                    w &= w - 1;
+                    skip();
+                    return res;
+                }
+            };
+        }
+
+        @Override
+        BitmapContainer toBitmap() {
+            return this;
+        }
+
+        ArrayContainer toArrayContainer() {
+            char[] content = new char[Math.max(card, 4)];
+            int k = 0;
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                long w = words[i];
+                while (w != 0) {
+                    content[k++] = (char) ((i << 6) | Long.numberOfTrailingZeros(w));
+                    w &= w - 1;
+                }
+            }
+            return new ArrayContainer(content, k);
+        }
+    }
+
+    private static class RunContainer extends Container {
+
+        char[] runs; // run i: IDs runs[2i]..runs[2i]+runs[2i+1]
+        int nbRuns;
+        int card;
+
+        RunContainer(char[] runs, int nbRuns) {
+            this.runs = runs;
+            this.nbRuns = nbRuns;
+            for (int i = 0; i < nbRuns; i++) {
+                card += runs[2 * i + 1] + 1;
+            }
+        }
+
+        static RunContainer fromBitmap(BitmapContainer b, int numRuns) {
+            char[] runs = new char[2 * numRuns];
+            int k = 0;
+            int start = -1;
+            for (int x = 0; x <= 0xFFFF; x++) {
+                boolean in = (b.words[x >>> 6] & (1L << x)) != 0;
+                if (in && start < 0) {
+                    start = x;
+                } else if (!in && start >= 0) {
+                    runs[2 * k] = (char) start;
+                    runs[2 * k + 1] = (char) (x - 1 - start);
+                    k++;
+                    start = -1;
+                }
+            }
+            if (start >= 0) {
+                runs[2 * k] = (char) start;
+                runs[2 * k + 1] = (char) (0xFFFF - start);
+                k++;
+            }
+            return new RunContainer(runs, k);
+        }
+
+        int start(int i) {
+            return runs[2 * i];
+        }
+
+        int end(int i) {
+            return runs[2 * i] + runs[2 * i + 1];
+        }
+
+        boolean isFull() {
+            return card == 1 << 16;
+        }
+
+        @Override
+        int cardinality() {
+            return card;
+        }
+
+        @Override
+        boolean contains(char x) {
+            // last run starting at or before x
+            int lo = 0, hi = nbRuns - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (start(mid) <= x) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return hi >= 0 && x <= end(hi);
+        }
+
+        @Override
+        Container add(char x) {
+            if (contains(x)) {
+                return this;
+            }
+            return (card < ARRAY_MAX ? toBitmap().toArrayContainer() : toBitmap()).add(x);
+        }
+
+        @Override
+        Container and(Container o) {
+            if (isFull()) {
+                return o.copy();
+            }
+            if (o instanceof RunContainer && ((RunContainer) o).isFull()) {
+                return copy();
+            }
+            return o instanceof ArrayContainer ? o.and(this) : toBitmap().and(o);
+        }
+
+        @Override
+        Container or(Container o) {
+            if (isFull()) {
+                return copy();
+            }
+            if (o instanceof RunContainer && ((RunContainer) o).isFull()) {
+                return o.copy();
+            }
+            return toBitmap().or(o);
+        }
+
+        @Override
+        Container andNot(Container o) {
+            return toBitmap().andNot(o);
+        }
+
+        @Override
+        Container copy() {
+            return new RunContainer(Arrays.copyOf(runs, 2 * nbRuns), nbRuns);
+        }
+
+        @Override
+        Container optimize() {
+            return smallest(toBitmap());
+        }
+
+        @Override
+        int fill(int[] out, int pos, int high) {
+            for (int i = 0; i < nbRuns; i++) {
+                for (int x = start(i); x <= end(i); x++) {
+                    out[pos++] = high | x;
+                }
+            }
+            return pos;
+        }
+
+        @Override
+        ChunkIterator iterator() {
+            return new ChunkIterator() {
+                int run = 0;
+                int x = nbRuns > 0 ? start(0) : 0;
+
+                @Override
+                public boolean hasNext() {
+                    return run < nbRuns;
+                }
+
+                @Override
+                public int next() {
+                    int res = x;
+                    if (x == end(run)) {
+                        run++;
+                        if (run < nbRuns) {
+                            x = start(run);
+                        }
+                    } else {
+                        x++;
+                    }
+                    return res;
+                }
+            };
+        }
+
+        @Override
+        BitmapContainer toBitmap() {
+            BitmapContainer b = new BitmapContainer();
+            for (int i = 0; i < nbRuns; i++) {
+                b.setRange(start(i), end(i));
+            }
+            b.card = card;
+            return b;
+        }
+    }
+
+}
@@ -39,8 +39,44 @@ public class CMDLParser {
             Settings.limited = (value.compareTo("true") == 0);
         } else if (key.compareTo("timeout") == 0) {
             Settings.timeout = Long.parseLong(value);
+        } else if (key.compareTo("simpletBudget") == 0) {
+            Settings.simpletBudget = Long.parseLong(value);
+        } else if (key.compareTo("runBudget") == 0) {
+            Settings.runBudget = Long.parseLong(value);
         } else if (key.compareTo("storeOccMap") == 0) {
             Settings.storeOccMap = (value.compareTo("true") == 0);
+        } else if (key.compareTo("vertexOrder") == 0) {
+            Settings.vertexOrder = value;
+        } else if (key.compareTo("maximalOnly") == 0) {
+            Settings.maximalOnly = (value.compareTo("true") == 0);
+        } else if (key.compareTo("ccs") == 0) {
+            for (String cc : value.split(",")) {
+                Settings.ccs.add(Integer.parseInt(cc));
+            }
+        } else if (key.compareTo("ccThreads") == 0) {
+            Settings.ccThreads = Math.max(1, Integer.parseInt(value));
+        } else if (key.compareTo("matcher") == 0) {
+            Settings.matcher = value;
+        } else if (key.compareTo("matchOrder") == 0) {
+            Settings.matchOrder = value;
+        } else if (key.compareTo("planStats") == 0) {
+            Settings.planStats = (value.compareTo("true") == 0);
+        } else if (key.compareTo("simpletParallelism") == 0) {
+            Settings.simpletParallelism = value;
+        } else if (key.compareTo("minerThreads") == 0) {
+            Settings.minerThreads = Math.max(1, Integer.parseInt(value));
+        } else if (key.compareTo("maxWitnesses") == 0) {
+            Settings.maxWitnesses = Math.max(0, Integer.parseInt(value));
+        } else if (key.compareTo("failureCacheMB") == 0) {
+            Settings.failureCacheMB = Math.max(0, Long.parseLong(value));
+        } else if (key.compareTo("domainFilter") == 0) {
+            Settings.domainFilter = value;
+        } else if (key.compareTo("approxSamples") == 0) {
+            Settings.approxSamples = Math.max(1, Integer.parseInt(value));
+        } else if (key.compareTo("approxConfidence") == 0) {
+            Settings.approxConfidence = Double.parseDouble(value);
+        } else if (key.compareTo("symmetryBreaking") == 0) {
+            Settings.symmetryBreaking = (value.compareTo("true") == 0);
         }
     }
     
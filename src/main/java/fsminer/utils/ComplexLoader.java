@@ -0,0 +1,132 @@
+package fsminer.utils;
+
+import com.google.common.collect.Lists;
+import fsminer.structures.Complex;
+import fsminer.structures.ComplexSnapshot;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+public class ComplexLoader {
+
+    public static final String SNAPSHOT_EXT = ".fsc";
+
+    // loads a complex from a text file or from a snapshot
+    public static Complex load(String fileName) throws IOException {
+        if (fileName.endsWith(SNAPSHOT_EXT)) {
+            return ComplexSnapshot.read(fileName);
+        }
+        return remap(SimplexParser.parse(fileName, false).getSimplices());
+    }
+
+    // builds the complex after replacing the input IDs with dense IDs
+    public static Complex remap(int[][] simplices) {
+        VertexOrdering ordering = new VertexOrdering(simplices, Settings.vertexOrder);
+        ordering.relabel(simplices);
+        return new Complex(simplices, ordering.getOriginalIds());
+    }
+
+    // Connected components of a temporal complex file, one per line. Opening the
+    // file only locates the lines and counts their simplices; a component is
+    // parsed when it is read, so that only one needs to be in memory at a time.
+    // As in the original loader, lines with less than two simplices are not
+    // components and do not take an index.
+    public static class Components implements Closeable {
+
+        private final RandomAccessFile file;
+        private final FileChannel channel;
+        private int numComponents;
+        private long[] starts; // component -> byte position of its line
+        private long[] ends;
+        private int[] sizes; // component -> number of simplices
+
+        public Components(String fileName) throws IOException {
+            this.file = new RandomAccessFile(fileName, "r");
+            this.channel = file.getChannel();
+            this.starts = new long[16];
+            this.ends = new long[16];
+            this.sizes = new int[16];
+            scan();
+        }
+
+        private void scan() throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+            long pos = 0;
+            long lineStart = 0;
+            int tuples = 0;
+            int read;
+            while ((read = channel.read(buffer, pos)) > 0) {
+                for (int i = 0; i < read; i++) {
+                    byte b = buffer.get(i);
+                    if (b == '(') {
+                        tuples++;
+                    } else if (b == '\n') {
+                        addLine(lineStart, pos + i, tuples);
+                        lineStart = pos + i + 1;
+                        tuples = 0;
+                    }
+                }
+                pos += read;
+                buffer.clear();
+            }
+            addLine(lineStart, pos, tuples);
+        }
+
+        private void addLine(long start, long end, int tuples) {
+            if (tuples < 2) {
+                return;
+            }
+            if (numComponents == starts.length) {
+                starts = Arrays.copyOf(starts, numComponents * 2);
+                ends = Arrays.copyOf(ends, numComponents * 2);
+                sizes = Arrays.copyOf(sizes, numComponents * 2);
+            }
+            starts[numComponents] = start;
+            ends[numComponents] = end;
+            sizes[numComponents] = tuples;
+            numComponents++;
+        }
+
+        public int getNumComponents() {
+            return numComponents;
+        }
+
+        public int getNumSimplices(int c) {
+            return sizes[c];
+        }
+
+        // bytes taken by the component in the file, used as an estimate of its mining cost
+        public long getLength(int c) {
+            return ends[c] - starts[c];
+        }
+
+        // parses component c; safe to call from several threads
+        public Complex read(int c) throws IOException {
+            return remap(SimplexParser.parseLine(channel, starts[c], ends[c], true).getSimplices());
+        }
+
+        // components in ccs (or all components if ccs is empty), largest first
+        public List<Integer> select(Set<Integer> ccs) {
+            List<Integer> selected = Lists.newArrayList();
+            for (int c = 0; c < numComponents; c++) {
+                if (ccs.isEmpty() || ccs.contains(c)) {
+                    selected.add(c);
+                }
+            }
+            selected.sort(Comparator.comparingLong((Integer c) -> getLength(c)).reversed());
+            return selected;
+        }
+
+        @Override
+        public void close() throws IOException {
+            file.close();
+        }
+    }
+
+}
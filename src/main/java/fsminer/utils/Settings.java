@@ -1,5 +1,8 @@
 package fsminer.utils;
 
+import com.google.common.collect.Sets;
+import java.util.Set;
+
 public class Settings {
     
     public static String dataFolder;
@@ -11,12 +14,47 @@ public class Settings {
     // whether you want to find all the occurrences of the simplets
     public static boolean allMatches;
     public static String supportMeasure = "mni";
+    // to use if supportMeasure is mni-approx: candidates searched per simplet vertex, and
+    // confidence of the interval of the support
+    public static int approxSamples = 200;
+    public static double approxConfidence = 0.95;
     // to use if supportMeasure is mis
     public static boolean harmful = false;
     // whether you nees to save memory
     public static boolean limited;
     // max amount of time you want to spend on a candidate
     public static long timeout;
+    // max amount of time you want to spend on a simplet, and on the whole run (milliseconds, -1 for no limit)
+    public static long simpletBudget = -1;
+    public static long runBudget = -1;
     // whether you want to write on disk the image sets
     public static boolean storeOccMap;
+    // order of the dense vertex IDs assigned at load time: natural, degree, bfs, or rcm
+    public static String vertexOrder = "natural";
+    // whether the complex keeps only its maximal simplices (the duplicates are always dropped)
+    public static boolean maximalOnly = false;
+    // connected components to mine in temporal complexes (all if empty)
+    public static Set<Integer> ccs = Sets.newHashSet();
+    // connected components of a temporal complex mined concurrently (at most the number of cores)
+    public static int ccThreads = Runtime.getRuntime().availableProcessors();
+    // matching engine: interpreted, or compiled (matchers generated per simplet)
+    public static String matcher = "interpreted";
+    // order in which the simplet vertices are matched: cost (picked from the complex statistics) or dfs
+    public static String matchOrder = "cost";
+    // whether you want to write on disk the estimated and actual size of the searches of each simplet
+    public static boolean planStats = false;
+    // parallelism of the examination: inter (the extensions of a simplet in parallel),
+    // intra (the candidates of each extension in parallel), or auto (intra when the extensions are few)
+    public static String simpletParallelism = "auto";
+    // threads of the fork-join pool exploring the lattice of simplets; with a temporal complex,
+    // each component gets at most cores / ccThreads of them
+    public static int minerThreads = Runtime.getRuntime().availableProcessors();
+    // max number of embeddings kept by each simplet to seed the examination of its extensions
+    public static int maxWitnesses = 1024;
+    // memory cap of the failures of the min-based search shared among simplets, in MB (0 to disable)
+    public static long failureCacheMB = 64;
+    // arc consistency of the domains before the search: min (min-based search only), all, or none
+    public static String domainFilter = "min";
+    // whether the searches from a root skip the matches equivalent under the automorphisms fixing it
+    public static boolean symmetryBreaking = true;
 }
@@ -0,0 +1,240 @@
+package fsminer.utils;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+// Parser for the simplex text formats. The file is split in byte ranges that
+// end at line boundaries; the ranges are memory mapped and parsed in parallel,
+// reading the integers straight from the bytes.
+// Two formats are supported:
+// - plain: one simplex per line, as a space separated list of vertices;
+// - tuples: one connected component per line, as a tab separated list of
+//   simplices, each one written as a tuple "(v1, v2, ...)".
+public class SimplexParser {
+
+    private static final long MIN_CHUNK = 1 << 20;
+
+    public static ParsedSimplices parse(String fileName, boolean tuples) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "r")) {
+            FileChannel channel = file.getChannel();
+            long[] bounds = chunkBounds(channel);
+            try {
+                List<ParsedSimplices> chunks = IntStream.range(0, bounds.length - 1)
+                        .parallel()
+                        .mapToObj(i -> parseChunk(channel, bounds[i], bounds[i + 1], tuples))
+                        .collect(Collectors.toList());
+                return ParsedSimplices.concat(chunks);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    // parses a single line of the file, starting at byte position start
+    public static ParsedSimplices parseLine(FileChannel channel, long start, long end, boolean tuples) throws IOException {
+        try {
+            return parseChunk(channel, start, end, tuples);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // chunk boundaries: every chunk but the last one ends right after a newline
+    private static long[] chunkBounds(FileChannel channel) throws IOException {
+        long size = channel.size();
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        int chunks = (int) Math.max(1, Math.min(size / MIN_CHUNK, 4L * parallelism));
+        long[] bounds = new long[chunks + 1];
+        ByteBuffer window = ByteBuffer.allocate(4096);
+        int last = 0;
+        for (int i = 1; i < chunks; i++) {
+            long pos = Math.max(size * i / chunks, bounds[last]);
+            long next = -1;
+            while (next < 0 && pos < size) {
+                window.clear();
+                int read = channel.read(window, pos);
+                for (int j = 0; j < read && next < 0; j++) {
+                    if (window.get(j) == '\n') {
+                        next = pos + j + 1;
+                    }
+                }
+                pos += Math.max(read, 0);
+            }
+            if (next > bounds[last] && next < size) {
+                bounds[++last] = next;
+            }
+        }
+        bounds[++last] = size;
+        return Arrays.copyOf(bounds, last + 1);
+    }
+
+    private static ParsedSimplices parseChunk(FileChannel channel, long start, long end, boolean tuples) {
+        MappedByteBuffer buffer;
+        try {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        ParsedSimplices out = new ParsedSimplices();
+        int len = buffer.limit();
+        int value = 0;
+        boolean inNumber = false;
+        boolean negative = false;
+        boolean inTuple = false;
+        boolean lineStarted = false;
+        for (int i = 0; i < len; i++) {
+            byte b = buffer.get(i);
+            if (b >= '0' && b <= '9') {
+                value = value * 10 + (b - '0');
+                inNumber = true;
+                if (!lineStarted && !tuples) {
+                    lineStarted = true;
+                    out.startLine();
+                    out.startSimplex();
+                }
+                continue;
+            }
+            if (inNumber && (inTuple || !tuples)) {
+                out.addVertex(negative ? -value : value);
+            }
+            if (inNumber) {
+                value = 0;
+                inNumber = false;
+                negative = false;
+            }
+            if (b == '-') {
+                negative = true;
+            } else if (b == '\n') {
+                lineStarted = false;
+                inTuple = false;
+            } else if (tuples && b == '(') {
+                if (!lineStarted) {
+                    lineStarted = true;
+                    out.startLine();
+                }
+                inTuple = true;
+                out.startSimplex();
+            } else if (tuples && b == ')') {
+                inTuple = false;
+            }
+        }
+        if (inNumber && (inTuple || !tuples)) {
+            out.addVertex(negative ? -value : value);
+        }
+        return out.trim();
+    }
+
+    // simplices grouped by line, in compressed-sparse-row form
+    public static class ParsedSimplices {
+
+        private int numLines;
+        private int[] lineOffsets; // line i -> simplices lineOffsets[i]..lineOffsets[i+1]
+        private int numSimplices;
+        private int[] simplexOffsets; // simplex s -> vertices simplexOffsets[s]..simplexOffsets[s+1]
+        private int numVertices;
+        private int[] vertices;
+
+        ParsedSimplices() {
+            this.lineOffsets = new int[64];
+            this.simplexOffsets = new int[256];
+            this.vertices = new int[1024];
+        }
+
+        private void startLine() {
+            if (numLines + 2 > lineOffsets.length) {
+                lineOffsets = Arrays.copyOf(lineOffsets, lineOffsets.length * 2);
+            }
+            lineOffsets[numLines++] = numSimplices;
+            lineOffsets[numLines] = numSimplices;
+        }
+
+        private void startSimplex() {
+            if (numSimplices + 2 > simplexOffsets.length) {
+                simplexOffsets = Arrays.copyOf(simplexOffsets, simplexOffsets.length * 2);
+            }
+            simplexOffsets[numSimplices++] = numVertices;
+            simplexOffsets[numSimplices] = numVertices;
+            lineOffsets[numLines] = numSimplices;
+        }
+
+        private void addVertex(int v) {
+            if (numVertices + 1 > vertices.length) {
+                vertices = Arrays.copyOf(vertices, vertices.length * 2);
+            }
+            vertices[numVertices++] = v;
+            simplexOffsets[numSimplices] = numVertices;
+        }
+
+        private ParsedSimplices trim() {
+            lineOffsets = Arrays.copyOf(lineOffsets, numLines + 1);
+            simplexOffsets = Arrays.copyOf(simplexOffsets, numSimplices + 1);
+            vertices = Arrays.copyOf(vertices, numVertices);
+            return this;
+        }
+
+        private static ParsedSimplices concat(List<ParsedSimplices> chunks) {
+            if (chunks.size() == 1) {
+                return chunks.get(0);
+            }
+            ParsedSimplices res = new ParsedSimplices();
+            res.numLines = chunks.stream().mapToInt(c -> c.numLines).sum();
+            res.numSimplices = chunks.stream().mapToInt(c -> c.numSimplices).sum();
+            res.numVertices = chunks.stream().mapToInt(c -> c.numVertices).sum();
+            res.lineOffsets = new int[res.numLines + 1];
+            res.simplexOffsets = new int[res.numSimplices + 1];
+            res.vertices = new int[res.numVertices];
+            int lines = 0;
+            int simplices = 0;
+            int vertices = 0;
+            for (ParsedSimplices c : chunks) {
+                for (int i = 0; i < c.numLines; i++) {
+                    res.lineOffsets[lines + i] = c.lineOffsets[i] + simplices;
+                }
+                for (int i = 0; i < c.numSimplices; i++) {
+                    res.simplexOffsets[simplices + i] = c.simplexOffsets[i] + vertices;
+                }
+                System.arraycopy(c.vertices, 0, res.vertices, vertices, c.numVertices);
+                lines += c.numLines;
+                simplices += c.numSimplices;
+                vertices += c.numVertices;
+            }
+            res.lineOffsets[lines] = simplices;
+            res.simplexOffsets[simplices] = vertices;
+            return res;
+        }
+
+        public int getNumLines() {
+            return numLines;
+        }
+
+        public int getNumSimplices() {
+            return numSimplices;
+        }
+
+        public int getNumSimplicesInLine(int line) {
+            return lineOffsets[line + 1] - lineOffsets[line];
+        }
+
+        // vertex tuples of the simplices in the lines from..to-1
+        public int[][] getSimplices(int from, int to) {
+            int[][] res = new int[lineOffsets[to] - lineOffsets[from]][];
+            for (int s = lineOffsets[from]; s < lineOffsets[to]; s++) {
+                res[s - lineOffsets[from]] = Arrays.copyOfRange(vertices, simplexOffsets[s], simplexOffsets[s + 1]);
+            }
+            return res;
+        }
+
+        public int[][] getSimplices() {
+            return getSimplices(0, numLines);
+        }
+    }
+
+}
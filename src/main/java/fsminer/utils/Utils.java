@@ -4,8 +4,9 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import fsminer.structures.Simpl;
+import fsminer.structures.VertexBitmap;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -32,6 +33,13 @@ public class Utils {
         return newMap;
     }
     
+    // copy-on-write copies of the image sets
+    public static Map<Integer, VertexBitmap> copyImages(Map<Integer, VertexBitmap> map) {
+        Map<Integer, VertexBitmap> newMap = Maps.newHashMap();
+        map.entrySet().stream().forEach(e -> newMap.put(e.getKey(), e.getValue().copy()));
+        return newMap;
+    }
+    
     private static void helper(List<int[]> combinations, int data[], int start, int end, int index) {
         if (index == data.length) {
             int[] combination = data.clone();
@@ -49,23 +57,16 @@ public class Utils {
         return combinations;
     }
     
-    public static void customSort(List<Integer> cands, Set<Integer> image) {
-        if (image.isEmpty()) {
-            return;
+    // candidates in the image set first, then the others; both in increasing order
+    public static int[] customSort(VertexBitmap cands, VertexBitmap image) {
+        if (image == null || image.isEmpty()) {
+            return cands.toArray();
         }
-        Collections.sort(cands, (Integer o1, Integer o2) -> {
-            if (image.contains(o1)) {
-                if (image.contains(o2)) {
-                    return 0;
-                }
-                return -1;
-            } else {
-                if (image.contains(o2)) {
-                    return 1;
-                }
-                return Integer.compare(o1, o2);
-            }
-        });
+        int[] first = cands.copy().and(image).toArray();
+        int[] second = cands.andNot(image).toArray();
+        int[] sorted = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, sorted, first.length, second.length);
+        return sorted;
     }
     
 }
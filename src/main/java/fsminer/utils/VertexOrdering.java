@@ -0,0 +1,172 @@
+package fsminer.utils;
+
+import java.util.Arrays;
+
+// remaps the (sparse) vertex IDs of the input to dense IDs 0..n-1
+public class VertexOrdering {
+
+    private int[] sortedIds; // distinct original IDs, ascending
+    private int[] rank; // position in sortedIds -> dense ID
+    private int[] originalIds; // dense ID -> original ID
+    // vertex incidence, used by the locality-aware orderings: the simplices containing
+    // vertex i are memberships[memberOffsets[i]..memberOffsets[i+1]), and members[s]
+    // lists the positions in sortedIds of the vertices of simplex s
+    private int[][] members;
+    private int[] memberOffsets;
+    private int[] memberships;
+
+    // simplices as vertex tuples
+    public VertexOrdering(int[][] simplices, String strategy) {
+        this.sortedIds = Arrays.stream(simplices).flatMapToInt(Arrays::stream).distinct().sorted().toArray();
+        int[] order;
+        if (strategy.equalsIgnoreCase("degree")) {
+            buildIncidence(simplices);
+            order = degreeOrder();
+        } else if (strategy.equalsIgnoreCase("bfs")) {
+            buildIncidence(simplices);
+            order = bfsOrder(false);
+        } else if (strategy.equalsIgnoreCase("rcm")) {
+            buildIncidence(simplices);
+            order = bfsOrder(true);
+        } else {
+            // natural: keep the relative order of the original IDs
+            order = new int[sortedIds.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+        }
+        this.rank = new int[sortedIds.length];
+        this.originalIds = new int[sortedIds.length];
+        for (int i = 0; i < order.length; i++) {
+            rank[order[i]] = i;
+            originalIds[i] = sortedIds[order[i]];
+        }
+        this.members = null;
+        this.memberOffsets = null;
+        this.memberships = null;
+    }
+
+    public int toDense(int v) {
+        return rank[Arrays.binarySearch(sortedIds, v)];
+    }
+
+    public int[] getOriginalIds() {
+        return originalIds;
+    }
+
+    // renames the vertices of the simplices to dense IDs, in place
+    public void relabel(int[][] simplices) {
+        for (int[] s : simplices) {
+            for (int i = 0; i < s.length; i++) {
+                s[i] = toDense(s[i]);
+            }
+        }
+    }
+
+    private void buildIncidence(int[][] simplices) {
+        int n = sortedIds.length;
+        this.members = new int[simplices.length][];
+        this.memberOffsets = new int[n + 1];
+        for (int i = 0; i < simplices.length; i++) {
+            int[] m = new int[simplices[i].length];
+            for (int j = 0; j < m.length; j++) {
+                m[j] = Arrays.binarySearch(sortedIds, simplices[i][j]);
+            }
+            members[i] = m;
+            for (int v : m) {
+                memberOffsets[v + 1]++;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            memberOffsets[i + 1] += memberOffsets[i];
+        }
+        this.memberships = new int[memberOffsets[n]];
+        int[] pos = Arrays.copyOf(memberOffsets, n);
+        for (int i = 0; i < members.length; i++) {
+            for (int v : members[i]) {
+                memberships[pos[v]++] = i;
+            }
+        }
+    }
+
+    // upper bound to the degree: number of co-members over all the simplices containing v
+    private int[] weights() {
+        int[] weights = new int[sortedIds.length];
+        for (int v = 0; v < weights.length; v++) {
+            for (int j = memberOffsets[v]; j < memberOffsets[v + 1]; j++) {
+                weights[v] += members[memberships[j]].length - 1;
+            }
+        }
+        return weights;
+    }
+
+    private int[] degreeOrder() {
+        int[] weights = weights();
+        long[] keys = new long[weights.length];
+        for (int v = 0; v < keys.length; v++) {
+            // descending degree, ties broken by original ID
+            keys[v] = ((long) (Integer.MAX_VALUE - weights[v]) << 32) | v;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            order[i] = (int) keys[i];
+        }
+        return order;
+    }
+
+    // breadth-first visit of each connected component; with cuthillMcKee the
+    // newly discovered vertices are visited by increasing degree, starting
+    // from a vertex of minimum degree, and the final order is reversed
+    private int[] bfsOrder(boolean cuthillMcKee) {
+        int n = sortedIds.length;
+        int[] weights = weights();
+        // candidate roots of the components
+        long[] roots = new long[n];
+        for (int v = 0; v < n; v++) {
+            int w = cuthillMcKee ? weights[v] : Integer.MAX_VALUE - weights[v];
+            roots[v] = ((long) w << 32) | v;
+        }
+        Arrays.sort(roots);
+        boolean[] visited = new boolean[n];
+        int[] order = new int[n];
+        long[] discovered = new long[n];
+        int head = 0;
+        int tail = 0;
+        for (long root : roots) {
+            int r = (int) root;
+            if (visited[r]) {
+                continue;
+            }
+            visited[r] = true;
+            order[tail++] = r;
+            while (head < tail) {
+                int v = order[head++];
+                int found = 0;
+                for (int j = memberOffsets[v]; j < memberOffsets[v + 1]; j++) {
+                    for (int u : members[memberships[j]]) {
+                        if (!visited[u]) {
+                            visited[u] = true;
+                            discovered[found++] = ((long) weights[u] << 32) | u;
+                        }
+                    }
+                }
+                if (cuthillMcKee) {
+                    Arrays.sort(discovered, 0, found);
+                }
+                for (int j = 0; j < found; j++) {
+                    order[tail++] = (int) discovered[j];
+                }
+            }
+        }
+        if (cuthillMcKee) {
+            for (int i = 0, j = n - 1; i < j; i++, j--) {
+                int tmp = order[i];
+                order[i] = order[j];
+                order[j] = tmp;
+            }
+        }
+        return order;
+    }
+
+}